@@ -0,0 +1,152 @@
+#!/usr/bin/env bash
+# Measure the overhead of the telemetry: java-main sends the same load to java-worker in each mode
+#
+#   off   : worker without agent, java-main without telemetry (jug.otel.enabled=false)
+#   sdk   : worker without agent, java-main with the OpenTelemetry SDK
+#   agent : worker with the agent and the otelagent-extensions, java-main with the SDK
+#
+# The telemetry goes to the local OTLP/HTTP sink of java-main (gradle runSink), no collector is needed.
+# For each mode: throughput and p50/p99 of java-main, CPU time of both processes, bytes allocated by the worker,
+# spans and metrics received by the sink.
+#
+# Settings (environment variables):
+#   MODES     modes to run (default "off sdk agent")
+#   RPS       target requests per second (default 200)
+#   WARMUP    duration of the warmup run, not measured (default 30s)
+#   DURATION  duration of the measured run (default 60s)
+#   OUT       directory of the logs and of the report (default bench/results)
+set -euo pipefail
+
+MODES=${MODES:-"off sdk agent"}
+RPS=${RPS:-200}
+WARMUP=${WARMUP:-30s}
+DURATION=${DURATION:-60s}
+ROOT=$(cd "$(dirname "$0")/.." && pwd)
+OUT=${OUT:-$ROOT/bench/results}
+SINK_URL=http://localhost:4318
+WORKER_URL=http://localhost:8080
+
+WORKER_JAR=$ROOT/java-worker/build/libs/java-worker-0.0.1-SNAPSHOT.jar
+AGENT_JAR=$ROOT/otelagent-extensions/build/libs/opentelemetry-javaagent.jar
+MAIN_BIN=$ROOT/java-main/build/install/java-main/bin/java-main
+CLK_TCK=$(getconf CLK_TCK)
+
+mkdir -p "$OUT"
+PIDS=()
+cleanup() {
+  for pid in "${PIDS[@]}"; do
+    kill "$pid" 2>/dev/null || true
+  done
+}
+trap cleanup EXIT
+
+echo "Building"
+(cd "$ROOT/java-worker" && ./gradlew -q bootJar)
+(cd "$ROOT/otelagent-extensions" && ./gradlew -q extendedAgent)
+(cd "$ROOT/java-main" && ./gradlew -q installDist sinkClasses)
+
+wait_for() {
+  for _ in $(seq 1 120); do
+    curl -sf -o /dev/null "$1" && return 0
+    sleep 1
+  done
+  echo "Timeout waiting for $1" >&2
+  return 1
+}
+
+# number of requests recorded by a java-main run, from the "<operation>: count=<n> ..." summary lines
+recorded_requests() {
+  { grep -E '^[A-Za-z]+: count=' "$1" || true; } | sed -E 's/.*: count=([0-9]+).*/\1/' | awk '{ n += $1 } END { print n + 0 }'
+}
+
+# a run without requests has nothing to compare: stop instead of reporting empty numbers
+check_requests() {
+  local count
+  count=$(recorded_requests "$1")
+  if [ "$count" -eq 0 ]; then
+    echo "No request recorded by java-main, see $1" >&2
+    exit 1
+  fi
+  echo "  $count requests ($(basename "$1"))"
+}
+
+# user + system time of a process, in seconds
+cpu_seconds() {
+  awk -v tck="$CLK_TCK" '{ printf "%.2f", ($14 + $15) / tck }' "/proc/$1/stat"
+}
+
+# cumulated bytes allocated by the worker, from the micrometer jvm metrics
+worker_allocated_bytes() {
+  curl -sf "$WORKER_URL/actuator/metrics/jvm.gc.memory.allocated" | sed -E 's/.*"value":([0-9.E]+).*/\1/' | awk '{ printf "%.0f", $1 }'
+}
+
+java -cp "$ROOT/java-main/build/classes/java/sink" com.jug.sink.OtlpSink 4318 > "$OUT/sink.log" 2>&1 &
+PIDS+=($!)
+wait_for "$SINK_URL/stats"
+
+REPORT=$OUT/report.txt
+printf "%-6s %-12s %10s %10s %10s %12s %14s %16s %10s %10s\n" \
+  mode operation rps p50_ms p99_ms main_cpu_s worker_cpu_s worker_alloc_mb spans metrics > "$REPORT"
+
+for mode in $MODES; do
+  echo "Mode $mode"
+  worker_opts=()
+  main_otel=true
+  case $mode in
+    off) main_otel=false ;;
+    sdk) ;;
+    agent) worker_opts=(-javaagent:"$AGENT_JAR") ;;
+    *) echo "Unknown mode $mode" >&2; exit 1 ;;
+  esac
+
+  MANAGEMENT_ENDPOINTS_WEB_EXPOSURE_INCLUDE=health,metrics \
+  OTEL_SERVICE_NAME=java-worker \
+  OTEL_EXPORTER_OTLP_PROTOCOL=http/protobuf \
+  OTEL_EXPORTER_OTLP_ENDPOINT=$SINK_URL \
+  OTEL_METRIC_EXPORT_INTERVAL=10000 \
+  OTEL_JAVA_ENABLED_RESOURCE_PROVIDERS=none \
+    java "${worker_opts[@]}" -jar "$WORKER_JAR" > "$OUT/worker-$mode.log" 2>&1 &
+  worker_pid=$!
+  PIDS+=("$worker_pid")
+  wait_for "$WORKER_URL/actuator/health"
+
+  # english locale: the summary of the load generator is parsed
+  main_opts="-Duser.language=en -Duser.country=US -Djug.otel.enabled=$main_otel -Djug.otel.exporter.protocol=http/protobuf -Djug.otel.exporter.endpoint=$SINK_URL \
+    -Djug.otel.metric.export.interval=10s -Djug.load.rps=$RPS"
+
+  # warmup: JIT of both processes, connections, caches
+  JAVA_OPTS="$main_opts -Djug.load.duration=$WARMUP" "$MAIN_BIN" > "$OUT/main-$mode-warmup.log" 2>&1
+  check_requests "$OUT/main-$mode-warmup.log"
+
+  curl -sf -X POST "$SINK_URL/reset"
+  worker_cpu_before=$(cpu_seconds "$worker_pid")
+  worker_alloc_before=$(worker_allocated_bytes)
+
+  TIMEFORMAT='%U %S'
+  main_times=$( { time JAVA_OPTS="$main_opts -Djug.load.duration=$DURATION" "$MAIN_BIN" > "$OUT/main-$mode.log" 2>&1 ; } 2>&1 )
+  main_cpu=$(echo "$main_times" | awk '{ printf "%.2f", $1 + $2 }')
+  check_requests "$OUT/main-$mode.log"
+
+  # the last telemetry of the worker is received with its next export
+  sleep 11
+  worker_cpu=$(awk -v a="$(cpu_seconds "$worker_pid")" -v b="$worker_cpu_before" 'BEGIN { printf "%.2f", a - b }')
+  worker_alloc_mb=$(awk -v a="$(worker_allocated_bytes)" -v b="$worker_alloc_before" 'BEGIN { printf "%.1f", (a - b) / 1048576 }')
+  stats=$(curl -sf "$SINK_URL/stats")
+  spans=$(echo "$stats" | sed -E 's/.*"traces":\{[^}]*"items":([0-9]+).*/\1/')
+  metrics=$(echo "$stats" | sed -E 's/.*"metrics":\{[^}]*"items":([0-9]+).*/\1/')
+
+  # summary lines of the load generator: "create: count=... rps=... p50=...ms ... p99=...ms ..."
+  { grep -E '^[A-Za-z]+: count=' "$OUT/main-$mode.log" || true; } | while read -r line; do
+    operation=${line%%:*}
+    rps=$(echo "$line" | sed -E 's/.* rps=([0-9.]+).*/\1/')
+    p50=$(echo "$line" | sed -E 's/.* p50=([0-9.]+)ms.*/\1/')
+    p99=$(echo "$line" | sed -E 's/.* p99=([0-9.]+)ms.*/\1/')
+    printf "%-6s %-12s %10s %10s %10s %12s %14s %16s %10s %10s\n" \
+      "$mode" "$operation" "$rps" "$p50" "$p99" "$main_cpu" "$worker_cpu" "$worker_alloc_mb" "$spans" "$metrics" >> "$REPORT"
+  done
+
+  kill "$worker_pid"
+  wait "$worker_pid" 2>/dev/null || true
+done
+
+cat "$REPORT"
@@ -0,0 +1,111 @@
+package com.jug;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import io.opentelemetry.api.trace.propagation.W3CTraceContextPropagator;
+import io.opentelemetry.context.propagation.ContextPropagators;
+import io.opentelemetry.sdk.OpenTelemetrySdk;
+import io.opentelemetry.sdk.metrics.SdkMeterProvider;
+import io.opentelemetry.sdk.testing.exporter.InMemoryMetricReader;
+import io.opentelemetry.sdk.testing.exporter.InMemorySpanExporter;
+import io.opentelemetry.sdk.trace.SdkTracerProvider;
+import io.opentelemetry.sdk.trace.export.SimpleSpanProcessor;
+
+/**
+ * Measure the cost of the instrumented create and get calls
+ * 
+ * The worker is replaced by a local http server answering a constant person, and the telemetry is kept in memory.
+ * Run with {@code ./gradlew jmh}, the gc profiler reports the allocations per call ({@code gc.alloc.rate.norm}).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PersonClientBenchmark {
+
+    private static final byte[] PERSON_JSON = "{\"id\":1,\"firstName\":\"jugmontreal\"}".getBytes(StandardCharsets.UTF_8);
+
+    private HttpServer server;
+    private ExecutorService executor;
+    private InMemorySpanExporter spanExporter;
+    private OpenTelemetrySdk openTelemetry;
+    private PersonClient personClient;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/person/", PersonClientBenchmark::respond);
+        server.setExecutor(Executors.newFixedThreadPool(4));
+        server.start();
+
+        spanExporter = InMemorySpanExporter.create();
+        openTelemetry = OpenTelemetrySdk.builder()
+            .setTracerProvider(SdkTracerProvider.builder().addSpanProcessor(SimpleSpanProcessor.create(spanExporter)).build())
+            .setMeterProvider(SdkMeterProvider.builder().registerMetricReader(InMemoryMetricReader.create()).build())
+            .setPropagators(ContextPropagators.create(W3CTraceContextPropagator.getInstance()))
+            .build();
+
+        // the get request triggered by a successful create runs in the calling thread, so it is part of the measure
+        executor = Executors.newSingleThreadExecutor();
+        String baseUrl = "http://localhost:" + server.getAddress().getPort();
+        personClient = new PersonClient(openTelemetry, HttpClient.newBuilder().executor(executor).build(), Runnable::run,
+            NameDictionary.of(List.of("alice", "bob", "carol", "dave")), baseUrl + "/person/", baseUrl + "/person/batch", baseUrl + "/person/id/", 100);
+    }
+
+    @TearDown(Level.Iteration)
+    public void resetSpans() {
+        spanExporter.reset();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        openTelemetry.getSdkTracerProvider().shutdown().join(10, TimeUnit.SECONDS);
+        openTelemetry.getSdkMeterProvider().shutdown().join(10, TimeUnit.SECONDS);
+        server.stop(0);
+        ((ExecutorService) server.getExecutor()).shutdown();
+        executor.shutdown();
+    }
+
+    @Benchmark
+    public boolean createPerson() {
+        return personClient.createPerson();
+    }
+
+    @Benchmark
+    public boolean getPerson() {
+        return personClient.getPerson();
+    }
+
+    @Benchmark
+    public boolean createPersonAsync() {
+        return personClient.createPersonAsync().join();
+    }
+
+    private static void respond(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, PERSON_JSON.length);
+        try (OutputStream body = exchange.getResponseBody()) {
+            body.write(PERSON_JSON);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.jug;
+
+import java.time.Duration;
+import java.util.Locale;
+
+/**
+ * Read the application settings
+ * 
+ * A setting named {@code jug.http.version} is read from the system property {@code -Djug.http.version=...}, 
+ * then from the environment variable {@code JUG_HTTP_VERSION}, then falls back to the provided default value.
+ */
+final class Config {
+
+    private Config() {
+    }
+
+    static String get(String name, String defaultValue) {
+        String value = System.getProperty(name);
+        if (value == null) {
+            value = System.getenv(name.toUpperCase(Locale.ROOT).replace('.', '_'));
+        }
+        return (value == null || value.isBlank()) ? defaultValue : value.trim();
+    }
+
+    static int getInt(String name, int defaultValue) {
+        String value = get(name, null);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+    static long getLong(String name, long defaultValue) {
+        String value = get(name, null);
+        return value == null ? defaultValue : Long.parseLong(value);
+    }
+
+    static double getDouble(String name, double defaultValue) {
+        String value = get(name, null);
+        return value == null ? defaultValue : Double.parseDouble(value);
+    }
+
+    static boolean getBoolean(String name, boolean defaultValue) {
+        String value = get(name, null);
+        return value == null ? defaultValue : Boolean.parseBoolean(value);
+    }
+
+    /**
+     * Read a duration, either in ISO-8601 format ({@code PT10S}) or as a number followed by a unit ({@code 500ms}, {@code 10s}, {@code 5m}, {@code 1h})
+     */
+    static Duration getDuration(String name, Duration defaultValue) {
+        String value = get(name, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        return parseDuration(value);
+    }
+
+    static Duration parseDuration(String value) {
+        String lower = value.trim().toLowerCase(Locale.ROOT);
+        if (lower.startsWith("p")) {
+            return Duration.parse(value.trim().toUpperCase(Locale.ROOT));
+        }
+        if (lower.endsWith("ms")) {
+            return Duration.ofMillis(Long.parseLong(lower.substring(0, lower.length() - 2)));
+        }
+        long amount = Long.parseLong(lower.substring(0, lower.length() - 1));
+        switch (lower.charAt(lower.length() - 1)) {
+            case 's': return Duration.ofSeconds(amount);
+            case 'm': return Duration.ofMinutes(amount);
+            case 'h': return Duration.ofHours(amount);
+            default: throw new IllegalArgumentException("Invalid duration: " + value);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.jug;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.concurrent.Executor;
+
+/**
+ * Build the single {@link HttpClient} shared by all the requests of the application
+ * 
+ * Sharing the client keeps the connections alive between requests instead of paying for a new selector thread,
+ * a new connection pool and a new TCP handshake on each call.
+ * 
+ * Settings:
+ * <ul>
+ * <li>{@code jug.http.version}: {@code HTTP_1_1} (default, keep-alive) or {@code HTTP_2} (h2c upgrade)</li>
+ * <li>{@code jug.http.connect.timeout}: connection timeout (default 2s)</li>
+ * <li>{@code jug.http.pool.size}: max number of idle connections kept in the pool for reuse, 0 for unlimited (default 0).
+ * It does not limit the open connections: a request finding no idle connection opens a new one, the connections in use
+ * are bounded by the requests in flight ({@code jug.load.max.inflight})</li>
+ * <li>{@code jug.http.keepalive.timeout}: idle time before a pooled connection is closed (default 30s)</li>
+ * </ul>
+ */
+final class HttpClientFactory {
+
+    static final Duration REQUEST_TIMEOUT = Config.getDuration("jug.http.request.timeout", Duration.ofSeconds(5));
+
+    private HttpClientFactory() {
+    }
+
+    static HttpClient create(Executor executor) {
+        // the jdk connection pool reads these properties once, they must be set before the first client is built
+        setIfAbsent("jdk.httpclient.connectionPoolSize", String.valueOf(Config.getInt("jug.http.pool.size", 0)));
+        setIfAbsent("jdk.httpclient.keepalive.timeout", 
+            String.valueOf(Config.getDuration("jug.http.keepalive.timeout", Duration.ofSeconds(30)).toSeconds()));
+
+        return HttpClient.newBuilder()
+            .version(HttpClient.Version.valueOf(Config.get("jug.http.version", "HTTP_1_1")))
+            .connectTimeout(Config.getDuration("jug.http.connect.timeout", Duration.ofSeconds(2)))
+            .executor(executor)
+            .build();
+    }
+
+    private static void setIfAbsent(String property, String value) {
+        if (System.getProperty(property) == null) {
+            System.setProperty(property, value);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.jug;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.metrics.DoubleHistogram;
+
+/**
+ * Record the latency of one operation of the load generator, both in a HdrHistogram for the end-of-run summary 
+ * and in an OpenTelemetry histogram
+ * 
+ * The latency is measured from the intended start time of the request, not from the time it was actually sent,
+ * so a slow backend delaying the following requests is accounted for (coordinated omission correction).
+ */
+final class LatencyRecorder {
+
+    private static final AttributeKey<String> OPERATION_KEY = AttributeKey.stringKey("operation");
+    private static final AttributeKey<Boolean> ERROR_KEY = AttributeKey.booleanKey("error");
+
+    private final String operation;
+    private final DoubleHistogram otelHistogram;
+    private final Attributes successAttributes;
+    private final Attributes errorAttributes;
+    // auto-resizing histogram with 3 significant digits
+    private final Histogram histogram = new ConcurrentHistogram(3);
+    private final LongAdder errors = new LongAdder();
+
+    LatencyRecorder(String operation, DoubleHistogram otelHistogram) {
+        this.operation = operation;
+        this.otelHistogram = otelHistogram;
+        this.successAttributes = Attributes.of(OPERATION_KEY, operation, ERROR_KEY, false);
+        this.errorAttributes = Attributes.of(OPERATION_KEY, operation, ERROR_KEY, true);
+    }
+
+    String operation() {
+        return operation;
+    }
+
+    void record(long latencyNanos, boolean error) {
+        histogram.recordValue(latencyNanos);
+        if (error) {
+            errors.increment();
+        }
+        otelHistogram.record(latencyNanos / 1e6, error ? errorAttributes : successAttributes);
+    }
+
+    long count() {
+        return histogram.getTotalCount();
+    }
+
+    double percentileMillis(double percentile) {
+        return histogram.getValueAtPercentile(percentile) / 1e6;
+    }
+
+    /**
+     * Return a one line summary: throughput, errors and latency percentiles in milliseconds
+     */
+    String summary(Duration elapsed) {
+        long count = histogram.getTotalCount();
+        double seconds = Math.max(elapsed.toMillis(), 1) / 1000.0;
+        return String.format("%s: count=%d rps=%.1f errors=%d mean=%.2fms p50=%.2fms p90=%.2fms p99=%.2fms p99.9=%.2fms max=%.2fms",
+            operation, count, count / seconds, errors.sum(), histogram.getMean() / 1e6,
+            percentileMillis(50), percentileMillis(90), percentileMillis(99), percentileMillis(99.9), 
+            histogram.getMaxValue() / (double) TimeUnit.MILLISECONDS.toNanos(1));
+    }
+}
@@ -0,0 +1,225 @@
+package com.jug;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import io.opentelemetry.api.metrics.DoubleHistogram;
+import io.opentelemetry.api.metrics.Meter;
+
+/**
+ * Send requests at their intended start time, whatever the response time of the backend (open model)
+ * 
+ * A dedicated thread reads the intended start time of each request from an {@link ArrivalSource} and hands the request 
+ * to the executor, so it never waits for a response. With a {@link LoadProfile}, each request runs one of the registered 
+ * operations, picked randomly according to its weight; a replayed log provides its own requests.
+ * 
+ * The number of requests in flight is bounded by {@code jug.load.max.inflight} (default 1000): when the bound is reached 
+ * the next request waits for a slot (backpressure), and this wait is part of its measured latency.
+ */
+final class LoadGenerator {
+
+    private static final Logger LOGGER = Logger.getLogger("LoadGenerator");
+
+    /**
+     * A request to send: its intended start, as an offset from the start of the run, and the name of its operation
+     */
+    record Arrival(long offsetNanos, String operation, Supplier<? extends CompletionStage<Boolean>> task) {
+    }
+
+    /**
+     * The requests of a run, called by the scheduler thread only
+     */
+    interface ArrivalSource {
+
+        /**
+         * Return the next request, or {@code null} once the run is done
+         */
+        Arrival next();
+    }
+
+    private record WeightedOperation(String name, Supplier<? extends CompletionStage<Boolean>> task, double weight) {
+    }
+
+    // either the profile of the registered operations, or the source of the requests
+    private final LoadProfile profile;
+    private final ArrivalSource source;
+    private final ExecutorService executor;
+    private final DoubleHistogram latencyHistogram;
+    private final List<WeightedOperation> operations = new ArrayList<>();
+    // sorted by operation name for the summary, read by the shutdown hook while the scheduler thread adds operations
+    private final Map<String, LatencyRecorder> recorders = new ConcurrentSkipListMap<>();
+    private final AtomicBoolean stopped = new AtomicBoolean();
+    private final int maxInFlight = Config.getInt("jug.load.max.inflight", 1000);
+    private final Semaphore inFlight = new Semaphore(maxInFlight);
+    private final CompletableFuture<Void> done = new CompletableFuture<>();
+    private double totalWeight;
+    private volatile long startNanos;
+    private volatile long endNanos;
+
+    /**
+     * Send the registered operations at the rate of the profile
+     */
+    LoadGenerator(LoadProfile profile, ExecutorService executor, Meter meter) {
+        this(profile, null, executor, meter);
+    }
+
+    /**
+     * Send the requests of the source, the registered operations are not used
+     */
+    LoadGenerator(ArrivalSource source, ExecutorService executor, Meter meter) {
+        this(null, source, executor, meter);
+    }
+
+    private LoadGenerator(LoadProfile profile, ArrivalSource source, ExecutorService executor, Meter meter) {
+        this.profile = profile;
+        this.source = source;
+        this.executor = executor;
+        // TOSHOW: histogram created once and shared by all requests
+        this.latencyHistogram = meter.histogramBuilder("jug_load_latency")
+            .setDescription("Latency of the load generator requests, measured from their intended start time")
+            .setUnit("ms")
+            .build();
+    }
+
+    /**
+     * Register a blocking operation, run for a share {@code weight / sum of weights} of the requests
+     * 
+     * The task returns {@code false} when the request failed
+     */
+    LoadGenerator addOperation(String name, double weight, BooleanSupplier task) {
+        return addAsyncOperation(name, weight, () -> CompletableFuture.completedFuture(task.getAsBoolean()));
+    }
+
+    /**
+     * Register a non-blocking operation, run for a share {@code weight / sum of weights} of the requests
+     * 
+     * The returned stage completes with {@code false} when the request failed
+     */
+    LoadGenerator addAsyncOperation(String name, double weight, Supplier<? extends CompletionStage<Boolean>> task) {
+        if (weight > 0) {
+            operations.add(new WeightedOperation(name, task, weight));
+            totalWeight += weight;
+        }
+        return this;
+    }
+
+    private ArrivalSource weightedArrivals(LoadProfile.Arrivals arrivals) {
+        return () -> {
+            long offset = arrivals.nextOffsetNanos();
+            if (offset < 0) {
+                return null;
+            }
+            WeightedOperation operation = pickOperation();
+            return new Arrival(offset, operation.name(), operation.task());
+        };
+    }
+
+    /**
+     * Start sending requests, the returned future completes once all the phases are done and the last responses are received
+     * 
+     * The scheduler thread is a daemon, so a stuck run cannot prevent the JVM exit: the caller has to wait for the future.
+     */
+    CompletableFuture<Void> start() {
+        Thread thread = new Thread(this::run, "java-main-load-scheduler");
+        thread.setDaemon(true);
+        thread.start();
+        return done;
+    }
+
+    void stop() {
+        stopped.set(true);
+    }
+
+    private void run() {
+        try {
+            sendArrivals();
+        } catch (RuntimeException | Error ex) {
+            // the caller waits for the end of the run
+            done.completeExceptionally(ex);
+            throw ex;
+        }
+    }
+
+    private void sendArrivals() {
+        ArrivalSource arrivals = (source != null) ? source : weightedArrivals(profile.arrivals());
+        startNanos = System.nanoTime();
+        Arrival arrival;
+        while (!stopped.get() && (arrival = arrivals.next()) != null) {
+            long intendedStart = startNanos + arrival.offsetNanos();
+            long waitNanos;
+            while ((waitNanos = intendedStart - System.nanoTime()) > 0 && !stopped.get()) {
+                LockSupport.parkNanos(waitNanos);
+            }
+            dispatch(arrival, intendedStart);
+        }
+        awaitInFlight();
+        endNanos = System.nanoTime();
+        LOGGER.log(Level.INFO, "Load generation done\n{0}", summary());
+        done.complete(null);
+    }
+
+    private WeightedOperation pickOperation() {
+        double value = ThreadLocalRandom.current().nextDouble(totalWeight);
+        for (WeightedOperation operation : operations) {
+            value -= operation.weight();
+            if (value < 0) {
+                return operation;
+            }
+        }
+        return operations.get(operations.size() - 1);
+    }
+
+    private void dispatch(Arrival arrival, long intendedStart) {
+        LatencyRecorder recorder = recorders.computeIfAbsent(arrival.operation(), name -> new LatencyRecorder(name, latencyHistogram));
+        // TOSHOW: backpressure, wait for a free slot instead of queuing an unbounded number of requests
+        inFlight.acquireUninterruptibly();
+        // the task runs on the executor, so the scheduler thread never builds nor sends a request
+        CompletableFuture.supplyAsync(arrival.task(), executor)
+            .thenCompose(stage -> stage)
+            .whenComplete((success, ex) -> {
+                if (ex != null) {
+                    LOGGER.log(Level.FINE, "Request failed", ex);
+                }
+                recorder.record(System.nanoTime() - intendedStart, ex != null || !success);
+                inFlight.release();
+            });
+    }
+
+    private void awaitInFlight() {
+        try {
+            if (inFlight.tryAcquire(maxInFlight, HttpClientFactory.REQUEST_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)) {
+                inFlight.release(maxInFlight);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Return the summary of the run (or of the run so far), one line per operation
+     */
+    String summary() {
+        long end = (endNanos != 0) ? endNanos : System.nanoTime();
+        Duration elapsed = Duration.ofNanos(end - startNanos);
+        StringBuilder builder = new StringBuilder("Run duration: ").append(elapsed);
+        for (LatencyRecorder recorder : recorders.values()) {
+            builder.append('\n').append(recorder.summary(elapsed));
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,122 @@
+package com.jug;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Target request rate over time, as a list of phases where the rate goes linearly from a start to an end value
+ * 
+ * Settings:
+ * <ul>
+ * <li>{@code jug.load.rps}: target requests per second (default 2)</li>
+ * <li>{@code jug.load.rampup}: time to go from 0 to the target rate (default 0s)</li>
+ * <li>{@code jug.load.duration}: time spent at the target rate, 0 to run forever (default 0s)</li>
+ * <li>{@code jug.load.phases}: explicit phases, overriding the settings above, 
+ * for example {@code 10s:0-100,1m:100,30s:100-500} (a phase with a 0s duration runs forever)</li>
+ * </ul>
+ */
+final class LoadProfile {
+
+    record Phase(Duration duration, double fromRps, double toRps) {
+
+        boolean isEndless() {
+            return duration.isZero();
+        }
+    }
+
+    private final List<Phase> phases;
+
+    LoadProfile(List<Phase> phases) {
+        this.phases = List.copyOf(phases);
+    }
+
+    static LoadProfile fromConfig() {
+        String spec = Config.get("jug.load.phases", null);
+        if (spec != null) {
+            return parse(spec);
+        }
+        double rps = Config.getDouble("jug.load.rps", 2);
+        Duration rampUp = Config.getDuration("jug.load.rampup", Duration.ZERO);
+        Duration duration = Config.getDuration("jug.load.duration", Duration.ZERO);
+        List<Phase> phases = new ArrayList<>();
+        if (!rampUp.isZero()) {
+            phases.add(new Phase(rampUp, 0, rps));
+        }
+        phases.add(new Phase(duration, rps, rps));
+        return new LoadProfile(phases);
+    }
+
+    static LoadProfile parse(String spec) {
+        List<Phase> phases = new ArrayList<>();
+        for (String item : spec.split(",")) {
+            String[] parts = item.trim().split(":");
+            Duration duration = Config.parseDuration(parts[0]);
+            String[] rates = parts[1].split("-");
+            double from = Double.parseDouble(rates[0]);
+            double to = rates.length > 1 ? Double.parseDouble(rates[1]) : from;
+            phases.add(new Phase(duration, from, to));
+        }
+        return new LoadProfile(phases);
+    }
+
+    List<Phase> phases() {
+        return phases;
+    }
+
+    /**
+     * Return the intended start times of the requests, following the phases
+     */
+    Arrivals arrivals() {
+        return new Arrivals();
+    }
+
+    /**
+     * Compute the intended start time of each request, independently of the time the previous requests took (open model)
+     * 
+     * Within a phase the number of requests sent at time t is {@code N(t) = from * t + (to - from) * t^2 / (2 * duration)},
+     * so the start time of the k-th request is the solution of {@code N(t) = k}.
+     */
+    final class Arrivals {
+
+        private int phaseIndex;
+        private double phaseStartSeconds;
+        private double phaseStartCount;
+        private long count;
+
+        /**
+         * Return the offset in nanoseconds from the start of the run of the next request, or -1 once all phases are done
+         */
+        long nextOffsetNanos() {
+            while (phaseIndex < phases.size()) {
+                Phase phase = phases.get(phaseIndex);
+                double seconds = phase.duration().toNanos() / 1e9;
+                double k = count - phaseStartCount;
+                double t = solve(phase, seconds, k);
+                if (!Double.isNaN(t) && (phase.isEndless() || t <= seconds)) {
+                    count++;
+                    return (long) ((phaseStartSeconds + t) * 1e9);
+                }
+                if (phase.isEndless()) {
+                    // endless phase without any request
+                    break;
+                }
+                // go to the next phase, keeping the fractional count of requests
+                phaseStartCount += (phase.fromRps() + phase.toRps()) * seconds / 2;
+                phaseStartSeconds += seconds;
+                phaseIndex++;
+            }
+            return -1;
+        }
+
+        private double solve(Phase phase, double seconds, double k) {
+            double a = phase.fromRps();
+            double b = phase.isEndless() ? 0 : (phase.toRps() - phase.fromRps()) / seconds;
+            if (b == 0) {
+                return a > 0 ? k / a : Double.NaN;
+            }
+            double delta = a * a + 2 * b * k;
+            return delta < 0 ? Double.NaN : (-a + Math.sqrt(delta)) / b;
+        }
+    }
+}
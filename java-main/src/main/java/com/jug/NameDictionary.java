@@ -0,0 +1,235 @@
+package com.jug;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The first names used to create persons, one name per line of a file
+ *
+ * The file is memory mapped and only the offsets of the lines are kept on the heap, in an {@code int[]}:
+ * a name is decoded (and lower cased) when it is used, so a file of millions of names costs 8 bytes per name.
+ *
+ * The random names are picked with {@link ThreadLocalRandom}, without contention between the request threads,
+ * either uniformly or following a Zipf distribution, where the first names of the file are the hot keys.
+ *
+ * Settings:
+ * <ul>
+ * <li>{@code jug.names.file}: the file of names (default the {@code names.txt} resource)</li>
+ * <li>{@code jug.names.limit}: number of names used, from the start of the file, 0 for all (default 1000)</li>
+ * <li>{@code jug.names.distribution}: {@code uniform} or {@code zipf} (default uniform)</li>
+ * <li>{@code jug.names.zipf.exponent}: exponent of the Zipf distribution, the higher the hotter the first names (default 1.0)</li>
+ * </ul>
+ */
+final class NameDictionary {
+
+    private static final Logger LOGGER = Logger.getLogger("NameDictionary");
+    // p = already in database, with create rate = 1/sec and size = 1000
+    // after 5min, p=30%
+    private static final int DEFAULT_LIMIT = 1000;
+
+    private final ByteBuffer buffer;
+    // start and end offsets of each name
+    private final int[] offsets;
+    private final int size;
+    private final ZipfSampler zipf;
+
+    private NameDictionary(ByteBuffer buffer, int limit, double zipfExponent) {
+        this.buffer = buffer;
+        this.offsets = indexLines(buffer, limit);
+        this.size = offsets.length / 2;
+        if (size == 0) {
+            throw new IllegalArgumentException("No name found");
+        }
+        this.zipf = zipfExponent > 0 ? new ZipfSampler(size, zipfExponent) : null;
+    }
+
+    static NameDictionary fromConfig() throws IOException, URISyntaxException {
+        String file = Config.get("jug.names.file", null);
+        int limit = Config.getInt("jug.names.limit", DEFAULT_LIMIT);
+        String distribution = Config.get("jug.names.distribution", "uniform");
+        double zipfExponent;
+        if ("zipf".equalsIgnoreCase(distribution)) {
+            zipfExponent = Config.getDouble("jug.names.zipf.exponent", 1.0);
+        } else if ("uniform".equalsIgnoreCase(distribution)) {
+            zipfExponent = 0;
+        } else {
+            throw new IllegalArgumentException("Invalid jug.names.distribution: " + distribution);
+        }
+        ByteBuffer buffer = file != null ? map(Paths.get(file)) : loadResource("names.txt");
+        NameDictionary dictionary = new NameDictionary(buffer, limit, zipfExponent);
+        LOGGER.log(Level.INFO, "Got {0} names, {1} distribution", new Object[]{dictionary.size(), distribution});
+        return dictionary;
+    }
+
+    /**
+     * A dictionary of the provided names, with a uniform distribution
+     */
+    static NameDictionary of(List<String> names) {
+        byte[] bytes = String.join("\n", names).getBytes(StandardCharsets.UTF_8);
+        return new NameDictionary(ByteBuffer.wrap(bytes), 0, 0);
+    }
+
+    private static ByteBuffer map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Names file larger than 2GB: " + path);
+            }
+            // the mapping stays valid once the channel is closed
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    private static ByteBuffer loadResource(String name) throws IOException, URISyntaxException {
+        URL url = NameDictionary.class.getClassLoader().getResource(name);
+        if (url == null) {
+            throw new IllegalArgumentException("Resource not found: " + name);
+        }
+        try {
+            return map(Paths.get(url.toURI()));
+        } catch (FileSystemNotFoundException ex) {
+            // packaged in a jar: not a file which can be mapped
+            try (InputStream input = url.openStream()) {
+                return ByteBuffer.wrap(input.readAllBytes());
+            }
+        }
+    }
+
+    /**
+     * Find the start and end offsets of the non empty lines, without decoding them
+     */
+    private static int[] indexLines(ByteBuffer buffer, int limit) {
+        int[] offsets = new int[64];
+        int count = 0;
+        int start = 0;
+        int end = buffer.limit();
+        for (int position = 0; position <= end && (limit <= 0 || count / 2 < limit); position++) {
+            if (position == end || buffer.get(position) == '\n') {
+                int lineEnd = position;
+                if (lineEnd > start && buffer.get(lineEnd - 1) == '\r') {
+                    lineEnd--;
+                }
+                if (lineEnd > start) {
+                    if (count + 2 > offsets.length) {
+                        offsets = Arrays.copyOf(offsets, offsets.length * 2);
+                    }
+                    offsets[count++] = start;
+                    offsets[count++] = lineEnd;
+                }
+                start = position + 1;
+            }
+        }
+        return Arrays.copyOf(offsets, count);
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Decode the name at the provided index
+     */
+    String name(int index) {
+        int start = offsets[2 * index];
+        byte[] bytes = new byte[offsets[2 * index + 1] - start];
+        buffer.get(start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8).toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Return the index of a random name, following the configured distribution
+     */
+    int nextIndex() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return zipf != null ? zipf.sample(random) - 1 : random.nextInt(size);
+    }
+
+    /**
+     * Zipf sampler by rejection-inversion (W. Hormann, G. Derflinger: "Rejection-inversion to generate variates
+     * from monotone discrete distributions"), in constant time and without a table of the probabilities
+     *
+     * Immutable, the random generator is provided by the caller.
+     */
+    private static final class ZipfSampler {
+
+        private final int numberOfElements;
+        private final double exponent;
+        private final double hIntegralX1;
+        private final double hIntegralNumberOfElements;
+        private final double s;
+
+        ZipfSampler(int numberOfElements, double exponent) {
+            this.numberOfElements = numberOfElements;
+            this.exponent = exponent;
+            this.hIntegralX1 = hIntegral(1.5) - 1d;
+            this.hIntegralNumberOfElements = hIntegral(numberOfElements + 0.5);
+            this.s = 2d - hIntegralInverse(hIntegral(2.5) - h(2));
+        }
+
+        /**
+         * @return a rank between 1 and the number of elements
+         */
+        int sample(ThreadLocalRandom random) {
+            while (true) {
+                double u = hIntegralNumberOfElements + random.nextDouble() * (hIntegralX1 - hIntegralNumberOfElements);
+                double x = hIntegralInverse(u);
+                int k = (int) (x + 0.5);
+                if (k < 1) {
+                    k = 1;
+                } else if (k > numberOfElements) {
+                    k = numberOfElements;
+                }
+                if (k - x <= s || u >= hIntegral(k + 0.5) - h(k)) {
+                    return k;
+                }
+            }
+        }
+
+        private double hIntegral(double x) {
+            double logX = Math.log(x);
+            return helper2((1d - exponent) * logX) * logX;
+        }
+
+        private double h(double x) {
+            return Math.exp(-exponent * Math.log(x));
+        }
+
+        private double hIntegralInverse(double x) {
+            double t = x * (1d - exponent);
+            if (t < -1d) {
+                t = -1d;
+            }
+            return Math.exp(helper1(t) * x);
+        }
+
+        // log(1 + x) / x, accurate for x near 0
+        private static double helper1(double x) {
+            if (Math.abs(x) > 1e-8) {
+                return Math.log1p(x) / x;
+            }
+            return 1 - x * (0.5 - x * (1d / 3 - 0.25 * x));
+        }
+
+        // (exp(x) - 1) / x, accurate for x near 0
+        private static double helper2(double x) {
+            if (Math.abs(x) > 1e-8) {
+                return Math.expm1(x) / x;
+            }
+            return 1 + x * 0.5 * (1 + x * (1d / 3) * (1 + 0.25 * x));
+        }
+    }
+}
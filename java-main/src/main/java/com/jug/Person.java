@@ -0,0 +1,7 @@
+package com.jug;
+
+/**
+ * A person returned by the worker
+ */
+record Person(long id, String firstName) {
+}
@@ -0,0 +1,8 @@
+package com.jug;
+
+/**
+ * The response of a batch creation: the number of created persons, of names which were already in database,
+ * and of invalid names
+ */
+record PersonBatch(long created, long conflicts, long invalid) {
+}
@@ -0,0 +1,209 @@
+package com.jug;
+
+import java.io.IOException;
+import java.net.http.HttpResponse.BodyHandler;
+import java.net.http.HttpResponse.BodySubscriber;
+import java.net.http.HttpResponse.BodySubscribers;
+import java.net.http.HttpResponse.ResponseInfo;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+import java.util.function.Function;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteArrayFeeder;
+
+/**
+ * Body handlers reading the persons returned by the worker directly from the received buffers
+ * 
+ * The json is parsed by a non-blocking jackson parser as the buffers arrive: the body is never copied into a 
+ * {@code String}, and only the id and first name of each person are kept. A response which is not a json 200 
+ * (an error, or the text of rust-hello) is discarded without being parsed.
+ */
+final class PersonBodyHandlers {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private PersonBodyHandlers() {
+    }
+
+    /**
+     * A single person: {@code {"id":1,"firstName":"bob"}}
+     */
+    static BodyHandler<Optional<Person>> person() {
+        return handler(Optional.empty(), reader -> reader.persons.stream().findFirst());
+    }
+
+    /**
+     * A batch result: {@code {"created":12,"conflicts":3,"invalid":0,"invalidItems":[]}}
+     */
+    static BodyHandler<PersonBatch> batch() {
+        return handler(new PersonBatch(0, 0, 0), reader -> new PersonBatch(reader.created, reader.conflicts, reader.invalid));
+    }
+
+    private static <T> BodyHandler<T> handler(T discarded, Function<PersonReader, T> finisher) {
+        return (ResponseInfo responseInfo) -> {
+            if (responseInfo.statusCode() != 200 || !isJson(responseInfo)) {
+                return BodySubscribers.replacing(discarded);
+            }
+            return new PersonBodySubscriber<>(finisher);
+        };
+    }
+
+    private static boolean isJson(ResponseInfo responseInfo) {
+        return responseInfo.headers().firstValue("Content-Type").map(type -> type.contains("json")).orElse(false);
+    }
+
+    /**
+     * Feed the received buffers to the parser, then consume the tokens available so far
+     */
+    private static class PersonBodySubscriber<T> implements BodySubscriber<T> {
+
+        private final CompletableFuture<T> body = new CompletableFuture<>();
+        private final Function<PersonReader, T> finisher;
+        private final PersonReader reader = new PersonReader();
+        private final JsonParser parser;
+        private final ByteArrayFeeder feeder;
+        private Flow.Subscription subscription;
+        private byte[] copyBuffer;
+
+        PersonBodySubscriber(Function<PersonReader, T> finisher) {
+            this.finisher = finisher;
+            try {
+                this.parser = JSON_FACTORY.createNonBlockingByteArrayParser();
+            } catch (IOException ex) {
+                throw new IllegalStateException(ex);
+            }
+            this.feeder = (ByteArrayFeeder) parser.getNonBlockingInputFeeder();
+        }
+
+        @Override
+        public CompletionStage<T> getBody() {
+            return body;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(1);
+        }
+
+        @Override
+        public void onNext(List<ByteBuffer> buffers) {
+            try {
+                for (ByteBuffer buffer : buffers) {
+                    feed(buffer);
+                    readAvailableTokens();
+                }
+                subscription.request(1);
+            } catch (IOException | RuntimeException ex) {
+                subscription.cancel();
+                onError(ex);
+            }
+        }
+
+        private void feed(ByteBuffer buffer) throws IOException {
+            int length = buffer.remaining();
+            if (buffer.hasArray()) {
+                int start = buffer.arrayOffset() + buffer.position();
+                feeder.feedInput(buffer.array(), start, start + length);
+            } else {
+                // the parser keeps a reference to the array until the next feed, so the copy buffer can be reused
+                if (copyBuffer == null || copyBuffer.length < length) {
+                    copyBuffer = new byte[length];
+                }
+                buffer.get(copyBuffer, 0, length);
+                feeder.feedInput(copyBuffer, 0, length);
+            }
+        }
+
+        private void readAvailableTokens() throws IOException {
+            JsonToken token;
+            while ((token = parser.nextToken()) != null && token != JsonToken.NOT_AVAILABLE) {
+                reader.onToken(token, parser);
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            body.completeExceptionally(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            try {
+                feeder.endOfInput();
+                readAvailableTokens();
+                parser.close();
+                body.complete(finisher.apply(reader));
+            } catch (IOException | RuntimeException ex) {
+                body.completeExceptionally(ex);
+            }
+        }
+    }
+
+    /**
+     * Build the persons from the tokens
+     * 
+     * The persons are the objects with an {@code id}, at any depth; the counts of a batch result are the numbers 
+     * of its top level object.
+     */
+    private static class PersonReader {
+
+        private final List<Person> persons = new ArrayList<>();
+        private long created;
+        private long conflicts;
+        private long invalid;
+        private int depth;
+        private String field;
+        private long id;
+        private boolean hasId;
+        private String firstName;
+
+        void onToken(JsonToken token, JsonParser parser) throws IOException {
+            switch (token) {
+                case START_OBJECT -> {
+                    depth++;
+                    hasId = false;
+                    firstName = null;
+                }
+                case END_OBJECT -> {
+                    depth--;
+                    if (hasId) {
+                        persons.add(new Person(id, firstName));
+                        hasId = false;
+                    }
+                }
+                case START_ARRAY -> depth++;
+                case END_ARRAY -> depth--;
+                case FIELD_NAME -> field = parser.currentName();
+                case VALUE_NUMBER_INT -> {
+                    if ("id".equals(field)) {
+                        id = parser.getLongValue();
+                        hasId = true;
+                    } else if (depth == 1 && "created".equals(field)) {
+                        created = parser.getLongValue();
+                    } else if (depth == 1 && "conflicts".equals(field)) {
+                        conflicts = parser.getLongValue();
+                    } else if (depth == 1 && "invalid".equals(field)) {
+                        invalid = parser.getLongValue();
+                    }
+                }
+                case VALUE_STRING -> {
+                    if ("firstName".equals(field)) {
+                        firstName = parser.getText();
+                    }
+                }
+                default -> {
+                    // other values are ignored
+                }
+            }
+        }
+    }
+}
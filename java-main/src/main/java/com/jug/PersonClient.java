@@ -0,0 +1,486 @@
+package com.jug;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import io.opentelemetry.api.OpenTelemetry;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.metrics.LongCounter;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanBuilder;
+import io.opentelemetry.api.trace.SpanContext;
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.context.Scope;
+import io.opentelemetry.context.propagation.TextMapPropagator;
+import io.opentelemetry.context.propagation.TextMapSetter;
+
+/**
+ * Instrumented calls to the worker: create a person, get a person
+ * 
+ * Everything which does not depend on the request (instruments, attribute keys, constant attributes, URIs) 
+ * is created once, so the per-request path only allocates the spans and the requests themselves.
+ * The create URIs are only cached for a small dictionary of names.
+ */
+final class PersonClient {
+
+    private static final Logger LOGGER = Logger.getLogger("PersonClient");
+    private static final AttributeKey<String> FIRSTNAME_KEY = AttributeKey.stringKey("firstname");
+    private static final AttributeKey<Long> ID_KEY = AttributeKey.longKey("id");
+    private static final AttributeKey<String> WITHLINK_KEY = AttributeKey.stringKey("withlink");
+    private static final AttributeKey<Long> BATCH_SIZE_KEY = AttributeKey.longKey("batch.size");
+    private static final AttributeKey<Long> BATCH_CREATED_KEY = AttributeKey.longKey("batch.created");
+    private static final AttributeKey<Long> BATCH_CONFLICTS_KEY = AttributeKey.longKey("batch.conflicts");
+    private static final AttributeKey<Long> BATCH_INVALID_KEY = AttributeKey.longKey("batch.invalid");
+    private static final int MAX_CACHED_CREATE_URIS = 10_000;
+
+    private final Tracer tracer;
+    private final TextMapPropagator propagator;
+    private final HttpClient client;
+    private final Executor executor;
+    private final LongCounter nameGeneratorCounter;
+    private final NameDictionary names;
+    private final String createEndpoint;
+    private final URI[] createUris;
+    private final URI[] randomGetUris;
+    private final URI batchUri;
+    private final String getEndpoint;
+
+    /**
+     * @param createEndpoint url prefix to create a person, completed with the first name
+     * @param batchEndpoint url to create persons by batch
+     * @param getEndpoint url prefix to get a person, completed with the id
+     * @param maxRandomId the random get requests use an id between 0 (included) and this value (excluded)
+     */
+    PersonClient(OpenTelemetry openTelemetry, HttpClient client, Executor executor, NameDictionary names, 
+            String createEndpoint, String batchEndpoint, String getEndpoint, int maxRandomId) {
+        this.tracer = openTelemetry.getTracer("java-main", "0.0.1");
+        this.propagator = openTelemetry.getPropagators().getTextMapPropagator();
+        this.client = client;
+        this.executor = executor;
+        // TOSHOW: instruments are created once, then used for each request
+        this.nameGeneratorCounter = openTelemetry.getMeter("java-main").counterBuilder("jug_name_generator_triggered").build();
+        this.names = names;
+        this.createEndpoint = createEndpoint;
+        if (names.size() <= MAX_CACHED_CREATE_URIS) {
+            this.createUris = new URI[names.size()];
+            for (int index = 0; index < names.size(); index++) {
+                createUris[index] = URI.create(createEndpoint + names.name(index));
+            }
+        } else {
+            this.createUris = null;
+        }
+        this.batchUri = URI.create(batchEndpoint);
+        this.getEndpoint = getEndpoint;
+        this.randomGetUris = new URI[maxRandomId];
+        for (int id = 0; id < maxRandomId; id++) {
+            randomGetUris[id] = URI.create(getEndpoint + id);
+        }
+    }
+
+    /**
+     * Create a random person on the worker backend
+     * 
+     * May fail is the person already exists or the service randomly fails
+     * 
+     * @return {@code true} if the person was created
+     */
+    boolean createPerson() {
+        Span span = tracer.spanBuilder("createPerson").startSpan();
+        try (Scope ss = span.makeCurrent()) {
+            // Generator
+            int nameIndex = localNameGenerator();
+
+            // Call API
+            return doCreateCall(nameIndex);
+        } catch (Exception ex) {
+            recordError(span, ex);
+            return false;
+        } finally {
+            span.end();
+        }
+    }
+
+    /**
+     * Same as {@link #createPerson()} without blocking a thread while waiting for the responses
+     */
+    CompletableFuture<Boolean> createPersonAsync() {
+        Span span = tracer.spanBuilder("createPerson").startSpan();
+        try (Scope ss = span.makeCurrent()) {
+            int nameIndex = localNameGenerator();
+            return doCreateCallAsync(nameIndex)
+                .handle((created, ex) -> {
+                    if (ex != null) {
+                        recordError(span, unwrap(ex));
+                        created = false;
+                    }
+                    span.end();
+                    return created;
+                });
+        } catch (RuntimeException ex) {
+            recordError(span, ex);
+            span.end();
+            return CompletableFuture.completedFuture(false);
+        }
+    }
+
+    /**
+     * Create a batch of random persons on the worker backend in a single request
+     * 
+     * The names already in database are reported by the worker without failing the batch
+     * 
+     * @return {@code false} if the request failed
+     */
+    boolean createPersonBatch(int size) {
+        Span span = startCreateBatchSpan(size);
+        try (Scope ss = span.makeCurrent()) {
+            HttpResponse<PersonBatch> response = client.send(buildCreateBatchRequest(size), PersonBodyHandlers.batch());
+            return handleCreateBatchResponse(span, response);
+        } catch (Exception ex) {
+            recordError(span, ex);
+            return false;
+        } finally {
+            span.end();
+        }
+    }
+
+    /**
+     * Same as {@link #createPersonBatch(int)} without blocking a thread while waiting for the response
+     */
+    CompletableFuture<Boolean> createPersonBatchAsync(int size) {
+        Span span = startCreateBatchSpan(size);
+        try (Scope ss = span.makeCurrent()) {
+            Executor contextExecutor = Context.current().wrap(executor);
+            return client.sendAsync(buildCreateBatchRequest(size), PersonBodyHandlers.batch())
+                .handleAsync((response, ex) -> {
+                    try {
+                        if (ex != null) {
+                            recordError(span, unwrap(ex));
+                            return false;
+                        }
+                        return handleCreateBatchResponse(span, response);
+                    } finally {
+                        span.end();
+                    }
+                }, contextExecutor);
+        } catch (RuntimeException ex) {
+            recordError(span, ex);
+            span.end();
+            return CompletableFuture.completedFuture(false);
+        }
+    }
+
+    private Span startCreateBatchSpan(int size) {
+        return tracer.spanBuilder("createPersonBatch")
+            .setSpanKind(SpanKind.CLIENT)
+            .setAttribute(BATCH_SIZE_KEY, (long) size)
+            .startSpan();
+    }
+
+    /**
+     * Build a json array of random names, without a span per name
+     */
+    private HttpRequest buildCreateBatchRequest(int size) {
+        nameGeneratorCounter.add(size);
+        StringBuilder body = new StringBuilder(size * 16).append('[');
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                body.append(',');
+            }
+            appendJsonString(body, names.name(names.nextIndex()));
+        }
+        body.append(']');
+        HttpRequest.Builder requestBuilder = HttpRequest.newBuilder()
+            .uri(batchUri)
+            .timeout(HttpClientFactory.REQUEST_TIMEOUT)
+            .header("Content-Type", "application/json")
+            .POST(BodyPublishers.ofString(body.toString()));
+        return addContextToHttpRequest(requestBuilder).build();
+    }
+
+    private static void appendJsonString(StringBuilder builder, String value) {
+        builder.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                builder.append('\\');
+            }
+            builder.append(c);
+        }
+        builder.append('"');
+    }
+
+    private boolean handleCreateBatchResponse(Span span, HttpResponse<PersonBatch> response) {
+        if (response.statusCode() != 200) {
+            span.setStatus(StatusCode.ERROR, "Got http code " + response.statusCode());
+            return false;
+        }
+        span.setAttribute(BATCH_CREATED_KEY, response.body().created());
+        span.setAttribute(BATCH_CONFLICTS_KEY, response.body().conflicts());
+        span.setAttribute(BATCH_INVALID_KEY, response.body().invalid());
+        return true;
+    }
+
+    /**
+     * Get a random person on the worker backend
+     * 
+     * @return {@code false} if the request failed
+     */
+    boolean getPerson() {
+        return new GetPersonJob().execute();
+    }
+
+    /**
+     * Same as {@link #getPerson()} without blocking a thread while waiting for the response
+     */
+    CompletableFuture<Boolean> getPersonAsync() {
+        return new GetPersonJob().executeAsync();
+    }
+
+    private void recordError(Span span, Throwable ex) {
+        LOGGER.log(Level.SEVERE, "Got error: {0}:{1}", 
+            new Object[]{ex.getClass().getName(), ex.getMessage()});
+        span.recordException(ex);
+        span.setStatus(StatusCode.ERROR);
+    }
+
+    private static Throwable unwrap(Throwable ex) {
+        return (ex instanceof CompletionException && ex.getCause() != null) ? ex.getCause() : ex;
+    }
+
+    /**
+     * Return the index of a random name from the list within a dedicated span
+     */
+    private int localNameGenerator() {
+        nameGeneratorCounter.add(1L);
+        Span span = tracer.spanBuilder("localNameGenerator").setSpanKind(SpanKind.INTERNAL).startSpan();
+        try (Scope ss = span.makeCurrent()) {
+            return names.nextIndex();
+        } finally {
+            span.end();
+        }
+    }
+
+    /**
+     * Insert into the HttpRequest the trace context
+     */
+    static final TextMapSetter<HttpRequest.Builder> PROPAGATOR_TEXTMAP_SETTER = new TextMapSetter<HttpRequest.Builder>() {
+        @Override
+        public void set(HttpRequest.Builder carrier, String key, String value) {
+            // TOSHOW: This adds traceparent=XXXXX as an header
+            // example: 00-7b5bb1484ab0e58d43e272aa24bee285-e9f4eaaac5de987b-01
+            // version "-" trace-id "-" parent-id "-" trace-flags
+            // see https://www.w3.org/TR/trace-context/#traceparent-header-field-values
+            carrier.header(key, value);
+        }
+    };
+    
+    private HttpRequest.Builder addContextToHttpRequest(HttpRequest.Builder requestBuilder) {
+        propagator.inject(Context.current(), requestBuilder, PROPAGATOR_TEXTMAP_SETTER);
+        return requestBuilder;
+    }
+
+    private Span startCreateCallSpan(int nameIndex) {
+        // TOSHOW: span creation and span attribute
+        return tracer.spanBuilder("doCreateCall")
+            .setSpanKind(SpanKind.CLIENT)
+            .setAttribute(FIRSTNAME_KEY, names.name(nameIndex))
+            .startSpan();
+    }
+
+    private HttpRequest buildCreateRequest(int nameIndex) {
+        HttpRequest.Builder requestBuilder = HttpRequest.newBuilder()
+            .uri(createUris != null ? createUris[nameIndex] : URI.create(createEndpoint + names.name(nameIndex)))
+            .timeout(HttpClientFactory.REQUEST_TIMEOUT)
+            .POST(BodyPublishers.noBody());
+        return addContextToHttpRequest(requestBuilder).build();
+    }
+
+    /**
+     * Do a http request to create a person on the worker backend, then retrieve this person from the worker
+     * 
+     * It illustrates a nested span, a linked span from the get task, a span attribute, a span event.
+     * The get runs in the calling thread, once the create span is ended, so it is part of the operation (and of its
+     * in-flight slot in the load generator) as in {@link #doCreateCallAsync(int)}.
+     * 
+     * @return {@code true} if the person was created
+     */
+    private boolean doCreateCall(int nameIndex) throws Exception {
+        Span span = startCreateCallSpan(nameIndex);
+        Optional<Long> id;
+        try (Scope ss = span.makeCurrent()) {
+            HttpResponse<Optional<Person>> response = client.send(buildCreateRequest(nameIndex), PersonBodyHandlers.person());
+            if (response.statusCode() == 200) {
+                span.setStatus(StatusCode.OK);
+                Optional<Person> person = response.body();
+                if (LOGGER.isLoggable(Level.FINE)) {
+                    LOGGER.log(Level.FINE, "Person created: {0}", person);
+                }
+                id = person.map(Person::id);
+                // TOSHOW: span event
+                id.ifPresent(value -> span.addEvent("GetPersonJob scheduled", Attributes.of(ID_KEY, value)));
+            } else {
+                // TOSHOW: span with error status
+                span.setStatus(StatusCode.ERROR, "Got http code " + response.statusCode());
+                return false;
+            }
+        } finally {
+            // TOSHOW: always end the span to avoid leak
+            span.end();
+        }
+        id.ifPresent(value -> new GetPersonJob(span.getSpanContext(), value).execute());
+        return true;
+    }
+
+    /**
+     * Same as {@link #doCreateCall(int)} as a pipeline of asynchronous stages: create the person then get it
+     * 
+     * The stages run on the http client threads, where the span of the call is not the current one:
+     * the executor of the stages is wrapped to make the context of the call current again.
+     */
+    private CompletableFuture<Boolean> doCreateCallAsync(int nameIndex) {
+        Span span = startCreateCallSpan(nameIndex);
+        try (Scope ss = span.makeCurrent()) {
+            // TOSHOW: context propagation across asynchronous stages
+            Executor contextExecutor = Context.current().wrap(executor);
+            return client.sendAsync(buildCreateRequest(nameIndex), PersonBodyHandlers.person())
+                .handleAsync((response, ex) -> {
+                    try {
+                        if (ex != null) {
+                            throw new CompletionException(unwrap(ex));
+                        }
+                        if (response.statusCode() != 200) {
+                            span.setStatus(StatusCode.ERROR, "Got http code " + response.statusCode());
+                            return Optional.<Long>empty();
+                        }
+                        span.setStatus(StatusCode.OK);
+                        if (LOGGER.isLoggable(Level.FINE)) {
+                            LOGGER.log(Level.FINE, "Person created: {0}", response.body());
+                        }
+                        Optional<Long> id = response.body().map(Person::id);
+                        id.ifPresent(value -> span.addEvent("GetPersonJob scheduled", Attributes.of(ID_KEY, value)));
+                        return id;
+                    } finally {
+                        span.end();
+                    }
+                }, contextExecutor)
+                .thenCompose(id -> id
+                    .map(value -> new GetPersonJob(span.getSpanContext(), value).executeAsync().thenApply(found -> true))
+                    .orElseGet(() -> CompletableFuture.completedFuture(false)));
+        } catch (RuntimeException ex) {
+            // the request was not sent, the stages which end the span will never run
+            recordError(span, ex);
+            span.end();
+            throw ex;
+        }
+    }
+
+    /**
+     * Job to get a random or specified user from the worker
+     */
+    private class GetPersonJob {
+
+        private final long id;
+        private final SpanContext spanContext;
+
+        public GetPersonJob(SpanContext spanContext, long id) {
+            this.spanContext = spanContext;
+            this.id = id;
+        }
+
+        public GetPersonJob() {
+            this.spanContext = null;
+            this.id = 0;
+        }
+
+        /**
+         * @return {@code false} if the request failed
+         */
+        boolean execute() {
+            Span span = startSpan();
+            try (Scope ss = span.makeCurrent()) {
+                HttpResponse<Optional<Person>> response = client.send(buildRequest(), PersonBodyHandlers.person());
+                logResponse(response);
+                // do not set status.OK on successful span according to doc
+                return true;
+            } catch(Exception ex) {
+                // TOSHOW: span with exception
+                recordError(span, ex);
+                return false;
+            } finally {
+                span.end();
+            }
+        }
+
+        /**
+         * Same as {@link #execute()} without blocking a thread while waiting for the response
+         */
+        CompletableFuture<Boolean> executeAsync() {
+            Span span = startSpan();
+            try (Scope ss = span.makeCurrent()) {
+                Executor contextExecutor = Context.current().wrap(executor);
+                return client.sendAsync(buildRequest(), PersonBodyHandlers.person())
+                    .handleAsync((response, ex) -> {
+                        try {
+                            if (ex != null) {
+                                recordError(span, unwrap(ex));
+                                return false;
+                            }
+                            logResponse(response);
+                            return true;
+                        } finally {
+                            span.end();
+                        }
+                    }, contextExecutor);
+            } catch (RuntimeException ex) {
+                recordError(span, ex);
+                span.end();
+                return CompletableFuture.completedFuture(false);
+            }
+        }
+
+        private void logResponse(HttpResponse<Optional<Person>> response) {
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.log(Level.FINE, "Response: {0}:{1}", new Object[]{response.statusCode(), response.body()});
+            }
+        }
+
+        private Span startSpan() {
+            SpanBuilder builder = tracer.spanBuilder("getPerson").setSpanKind(SpanKind.CLIENT);
+            if (spanContext != null) {
+                // TOSHOW: link with the main span
+                // not a child of the current span, which is the create call in the asynchronous pipeline
+                builder.setNoParent();
+                builder.addLink(spanContext);
+                builder.setAttribute(WITHLINK_KEY, "true");
+            }
+            return builder.startSpan();
+        }
+
+        private HttpRequest buildRequest() {
+            URI uri;
+            if (this.id == 0) {
+                uri = randomGetUris[ThreadLocalRandom.current().nextInt(randomGetUris.length)];
+            } else {
+                uri = URI.create(getEndpoint + this.id);
+            }
+            HttpRequest.Builder requestBuilder = HttpRequest.newBuilder()
+                .uri(uri)
+                .timeout(HttpClientFactory.REQUEST_TIMEOUT);
+            return addContextToHttpRequest(requestBuilder).build();
+        }
+    }
+}
@@ -0,0 +1,297 @@
+package com.jug;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublisher;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import io.opentelemetry.api.OpenTelemetry;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.context.Scope;
+import io.opentelemetry.context.propagation.TextMapGetter;
+import io.opentelemetry.context.propagation.TextMapPropagator;
+
+/**
+ * Replay a recorded log of requests, one json object per line:
+ *
+ * <pre>
+ * {"timestamp":"2023-03-01T12:00:00.120Z","method":"POST","path":"/person/bob","traceparent":"00-...-...-01"}
+ * </pre>
+ *
+ * <ul>
+ * <li>{@code timestamp}: ISO-8601 instant, or epoch milliseconds</li>
+ * <li>{@code method}, {@code path}: the request, sent to {@code jug.replay.target} (default {@code http://localhost:8080})</li>
+ * <li>{@code traceparent}, {@code tracestate}: the recorded trace context, at the top level or in a {@code headers} object</li>
+ * <li>{@code body}: optional json body, as a json object or array, or as a string holding the body text</li>
+ * <li>{@code operation}: optional name of the operation in the latency summary (default the method)</li>
+ * </ul>
+ *
+ * The log is read line by line while the requests are scheduled, so its size does not matter. The requests keep their
+ * recorded spacing, divided by {@code jug.replay.speed}: {@code original} (default), a factor ({@code 2} for twice as fast),
+ * or {@code max} to send them as fast as the in flight bound allows.
+ *
+ * Each request is sent within a span child of its recorded trace context, so the replayed requests keep their trace ids.
+ */
+final class RequestLogReplay implements LoadGenerator.ArrivalSource {
+
+    private static final Logger LOGGER = Logger.getLogger("RequestLogReplay");
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final AttributeKey<String> HTTP_METHOD_KEY = AttributeKey.stringKey("http.method");
+    private static final AttributeKey<String> HTTP_TARGET_KEY = AttributeKey.stringKey("http.target");
+    private static final AttributeKey<Long> HTTP_STATUS_CODE_KEY = AttributeKey.longKey("http.status_code");
+
+    private static final TextMapGetter<Map<String, String>> MAP_GETTER = new TextMapGetter<Map<String, String>>() {
+        @Override
+        public Iterable<String> keys(Map<String, String> carrier) {
+            return carrier.keySet();
+        }
+
+        @Override
+        public String get(Map<String, String> carrier, String key) {
+            return carrier == null ? null : carrier.get(key);
+        }
+    };
+
+    private record RecordedRequest(long timestampNanos, String method, String path, Map<String, String> traceHeaders,
+            String body, String operation) {
+    }
+
+    private final Tracer tracer;
+    private final TextMapPropagator propagator;
+    private final HttpClient client;
+    private final BufferedReader reader;
+    private final String target;
+    // 0 for max speed
+    private final double speed;
+    private long firstTimestampNanos = Long.MIN_VALUE;
+    private long lineNumber;
+    private long replayed;
+    private long skipped;
+
+    RequestLogReplay(OpenTelemetry openTelemetry, HttpClient client, Path log, String target, double speed) throws IOException {
+        this.tracer = openTelemetry.getTracer("java-main", "0.0.1");
+        this.propagator = openTelemetry.getPropagators().getTextMapPropagator();
+        this.client = client;
+        this.reader = Files.newBufferedReader(log, StandardCharsets.UTF_8);
+        this.target = target;
+        this.speed = speed;
+    }
+
+    static RequestLogReplay fromConfig(OpenTelemetry openTelemetry, HttpClient client) throws IOException {
+        String file = Config.get("jug.replay.file", null);
+        if (file == null) {
+            throw new IllegalArgumentException("jug.replay.file is required by the replay mode");
+        }
+        String speed = Config.get("jug.replay.speed", "original");
+        double factor;
+        if ("original".equalsIgnoreCase(speed)) {
+            factor = 1;
+        } else if ("max".equalsIgnoreCase(speed)) {
+            factor = 0;
+        } else {
+            factor = Double.parseDouble(speed);
+            if (factor <= 0) {
+                throw new IllegalArgumentException("Invalid jug.replay.speed: " + speed);
+            }
+        }
+        LOGGER.log(Level.INFO, "Replaying {0} at {1} speed", new Object[]{file, speed});
+        return new RequestLogReplay(openTelemetry, client, Paths.get(file),
+            Config.get("jug.replay.target", "http://localhost:8080"), factor);
+    }
+
+    @Override
+    public LoadGenerator.Arrival next() {
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isBlank()) {
+                    continue;
+                }
+                RecordedRequest request;
+                try {
+                    request = parse(line);
+                } catch (IOException | RuntimeException ex) {
+                    skipped++;
+                    LOGGER.log(Level.WARNING, "Skipping line {0}: {1}", new Object[]{lineNumber, ex.getMessage()});
+                    continue;
+                }
+                replayed++;
+                return new LoadGenerator.Arrival(offsetNanos(request), request.operation(), () -> send(request));
+            }
+            reader.close();
+            LOGGER.log(Level.INFO, "Replay done: {0} requests, {1} lines skipped", new Object[]{replayed, skipped});
+            return null;
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private long offsetNanos(RecordedRequest request) {
+        if (firstTimestampNanos == Long.MIN_VALUE) {
+            firstTimestampNanos = request.timestampNanos();
+        }
+        if (speed == 0) {
+            return 0;
+        }
+        // a request recorded out of order is sent right away
+        return Math.max(0, (long) ((request.timestampNanos() - firstTimestampNanos) / speed));
+    }
+
+    private CompletableFuture<Boolean> send(RecordedRequest request) {
+        Context recorded = propagator.extract(Context.root(), request.traceHeaders(), MAP_GETTER);
+        Span span = tracer.spanBuilder("replay " + request.method())
+            .setParent(recorded)
+            .setSpanKind(SpanKind.CLIENT)
+            .setAttribute(HTTP_METHOD_KEY, request.method())
+            .setAttribute(HTTP_TARGET_KEY, request.path())
+            .startSpan();
+        try (Scope ss = span.makeCurrent()) {
+            BodyPublisher body = request.body() != null ? BodyPublishers.ofString(request.body()) : BodyPublishers.noBody();
+            HttpRequest.Builder builder = HttpRequest.newBuilder()
+                .uri(URI.create(target + request.path()))
+                .timeout(HttpClientFactory.REQUEST_TIMEOUT)
+                .method(request.method(), body);
+            if (request.body() != null) {
+                builder.header("Content-Type", "application/json");
+            }
+            // TOSHOW: the recorded trace context is sent again, with the span of the replayed request as parent
+            propagator.inject(Context.current(), builder, PersonClient.PROPAGATOR_TEXTMAP_SETTER);
+            return client.sendAsync(builder.build(), HttpResponse.BodyHandlers.discarding())
+                .handle((response, ex) -> {
+                    try {
+                        if (ex != null) {
+                            span.recordException(ex);
+                            span.setStatus(StatusCode.ERROR);
+                            return false;
+                        }
+                        span.setAttribute(HTTP_STATUS_CODE_KEY, (long) response.statusCode());
+                        if (response.statusCode() >= 400) {
+                            span.setStatus(StatusCode.ERROR, "Got http code " + response.statusCode());
+                            return false;
+                        }
+                        return true;
+                    } finally {
+                        span.end();
+                    }
+                });
+        } catch (RuntimeException ex) {
+            span.recordException(ex);
+            span.setStatus(StatusCode.ERROR);
+            span.end();
+            return CompletableFuture.completedFuture(false);
+        }
+    }
+
+    private static RecordedRequest parse(String line) throws IOException {
+        long timestampNanos = 0;
+        boolean hasTimestamp = false;
+        String method = "GET";
+        String path = null;
+        String body = null;
+        String operation = null;
+        Map<String, String> traceHeaders = new HashMap<>(4);
+        try (JsonParser parser = JSON_FACTORY.createParser(line)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new JsonParseException(parser, "A json object is expected");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                switch (field) {
+                    case "timestamp" -> {
+                        timestampNanos = parseTimestamp(parser, value);
+                        hasTimestamp = true;
+                    }
+                    case "method" -> method = parser.getText().toUpperCase(Locale.ROOT);
+                    case "path" -> path = parser.getText();
+                    case "body" -> body = readBody(parser, value);
+                    case "operation" -> operation = parser.getText();
+                    case "traceparent", "tracestate" -> traceHeaders.put(field, parser.getText());
+                    case "headers" -> readTraceHeaders(parser, value, traceHeaders);
+                    default -> parser.skipChildren();
+                }
+            }
+        }
+        if (!hasTimestamp || path == null) {
+            throw new IllegalArgumentException("timestamp and path are required");
+        }
+        if (!path.startsWith("/")) {
+            path = "/" + path;
+        }
+        return new RecordedRequest(timestampNanos, method, path, traceHeaders, body, operation != null ? operation : method);
+    }
+
+    private static long parseTimestamp(JsonParser parser, JsonToken value) throws IOException {
+        if (value == JsonToken.VALUE_STRING) {
+            Instant instant = Instant.parse(parser.getText());
+            return instant.getEpochSecond() * 1_000_000_000L + instant.getNano();
+        }
+        if (value == JsonToken.VALUE_NUMBER_INT) {
+            return parser.getLongValue() * 1_000_000L;
+        }
+        return (long) (parser.getDoubleValue() * 1_000_000);
+    }
+
+    private static String readBody(JsonParser parser, JsonToken value) throws IOException {
+        if (value == JsonToken.VALUE_STRING) {
+            return parser.getText();
+        }
+        if (value == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (value != JsonToken.START_OBJECT && value != JsonToken.START_ARRAY) {
+            throw new JsonParseException(parser, "body must be a json object, array or string");
+        }
+        // copy the whole value, or its fields would be read as top level fields
+        StringWriter writer = new StringWriter();
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(writer)) {
+            generator.copyCurrentStructure(parser);
+        }
+        return writer.toString();
+    }
+
+    private static void readTraceHeaders(JsonParser parser, JsonToken value, Map<String, String> traceHeaders) throws IOException {
+        if (value != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return;
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.currentName().toLowerCase(Locale.ROOT);
+            parser.nextToken();
+            if (name.equals("traceparent") || name.equals("tracestate")) {
+                traceHeaders.put(name, parser.getText());
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+}
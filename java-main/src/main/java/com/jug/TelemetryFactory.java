@@ -0,0 +1,244 @@
+package com.jug;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import com.example.javaagent.DiskBuffer;
+import com.example.javaagent.DiskBufferedMetricExporter;
+import com.example.javaagent.DiskBufferedSpanExporter;
+
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.metrics.DoubleHistogram;
+import io.opentelemetry.api.metrics.LongCounter;
+import io.opentelemetry.api.metrics.Meter;
+import io.opentelemetry.api.metrics.MeterProvider;
+import io.opentelemetry.api.trace.propagation.W3CTraceContextPropagator;
+import io.opentelemetry.context.propagation.ContextPropagators;
+import io.opentelemetry.exporter.otlp.http.metrics.OtlpHttpMetricExporter;
+import io.opentelemetry.exporter.otlp.http.trace.OtlpHttpSpanExporter;
+import io.opentelemetry.exporter.otlp.metrics.OtlpGrpcMetricExporter;
+import io.opentelemetry.exporter.otlp.trace.OtlpGrpcSpanExporter;
+import io.opentelemetry.sdk.OpenTelemetrySdk;
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.metrics.InstrumentType;
+import io.opentelemetry.sdk.metrics.SdkMeterProvider;
+import io.opentelemetry.sdk.metrics.data.AggregationTemporality;
+import io.opentelemetry.sdk.metrics.data.MetricData;
+import io.opentelemetry.sdk.metrics.export.MetricExporter;
+import io.opentelemetry.sdk.metrics.export.PeriodicMetricReader;
+import io.opentelemetry.sdk.resources.Resource;
+import io.opentelemetry.sdk.trace.SdkTracerProvider;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.opentelemetry.sdk.trace.export.BatchSpanProcessor;
+import io.opentelemetry.sdk.trace.export.SpanExporter;
+
+/**
+ * Create the OpenTelemetry SDK of java-main, with an export pipeline sized by the settings
+ *
+ * <ul>
+ * <li>{@code jug.otel.exporter.protocol}: {@code grpc} or {@code http/protobuf} (default grpc)</li>
+ * <li>{@code jug.otel.exporter.endpoint}: the collector (default {@code http://localhost:4317} in grpc, {@code http://localhost:4318} in http)</li>
+ * <li>{@code jug.otel.exporter.timeout}: timeout of an export request (default 10s)</li>
+ * <li>{@code jug.otel.bsp.max.queue.size}: spans waiting for export, the next spans are dropped (default 2048)</li>
+ * <li>{@code jug.otel.bsp.max.export.batch.size}: spans per export request (default 512)</li>
+ * <li>{@code jug.otel.bsp.schedule.delay}: delay between two exports (default 5s)</li>
+ * <li>{@code jug.otel.bsp.export.timeout}: the export of a batch is abandoned after this delay (default 30s)</li>
+ * <li>{@code jug.otel.metric.export.interval}: delay between two metric exports (default 60s)</li>
+ * </ul>
+ *
+ * With {@code jug.otel.buffer.enabled=true}, the batches which cannot be exported are kept on the disk and replayed
+ * to the OTLP/HTTP endpoint once the collector is back (see {@link DiskBuffer}, from otelagent-extensions):
+ *
+ * <ul>
+ * <li>{@code jug.otel.buffer.directory}: the segments, in a sub-directory by signal (default {@code jug-otel-buffer/java-main} in the temporary directory)</li>
+ * <li>{@code jug.otel.buffer.max.bytes}: size cap by signal, the oldest batches are deleted beyond (default 256MB)</li>
+ * <li>{@code jug.otel.buffer.segment.bytes}: size of a segment file (default 8MB)</li>
+ * <li>{@code jug.otel.buffer.endpoint}: OTLP/HTTP endpoint of the replay (default the exporter endpoint in http, {@code http://localhost:4318} in grpc)</li>
+ * <li>{@code jug.otel.buffer.replay.bytes.per.second}: replay throughput (default 1MB)</li>
+ * </ul>
+ *
+ * The pipeline measures itself: the batch span processor reports its queue size ({@code queueSize}) and its processed
+ * and dropped spans ({@code processedSpans}), the exporters report the duration of each export and the exported items
+ * ({@code jug.otel.export.duration}, {@code jug.otel.export.items}), by signal and success.
+ */
+final class TelemetryFactory {
+
+    private static final AttributeKey<String> SIGNAL_KEY = AttributeKey.stringKey("signal");
+    private static final AttributeKey<Boolean> SUCCESS_KEY = AttributeKey.booleanKey("success");
+
+    private TelemetryFactory() {
+    }
+
+    static OpenTelemetrySdk create(Resource resource) throws IOException {
+        boolean http = "http/protobuf".equalsIgnoreCase(Config.get("jug.otel.exporter.protocol", "grpc"));
+        String endpoint = Config.get("jug.otel.exporter.endpoint", http ? "http://localhost:4318" : "http://localhost:4317");
+        Duration timeout = Config.getDuration("jug.otel.exporter.timeout", Duration.ofSeconds(10));
+
+        // the meter provider does not exist yet when the exporters are created: the self-metrics are registered on first export
+        SdkMeterProvider[] meterProviderHolder = new SdkMeterProvider[1];
+        ExportMetrics exportMetrics = new ExportMetrics(() -> meterProviderHolder[0]);
+
+        // TOSHOW: otel exporter manual configuration
+        MetricExporter metricExporter = new MeteredMetricExporter(http
+            ? OtlpHttpMetricExporter.builder().setEndpoint(endpoint + "/v1/metrics").setTimeout(timeout).build()
+            : OtlpGrpcMetricExporter.builder().setEndpoint(endpoint).setTimeout(timeout).build(), exportMetrics);
+        boolean buffered = Config.getBoolean("jug.otel.buffer.enabled", false);
+        if (buffered) {
+            metricExporter = new DiskBufferedMetricExporter(metricExporter,
+                createBuffer("metrics", http ? endpoint : null, meterProviderHolder));
+        }
+        SdkMeterProvider meterProvider = SdkMeterProvider.builder()
+            .registerMetricReader(PeriodicMetricReader.builder(metricExporter)
+                .setInterval(Config.getDuration("jug.otel.metric.export.interval", Duration.ofSeconds(60)))
+                .build())
+            .setResource(resource)
+            .build();
+        meterProviderHolder[0] = meterProvider;
+
+        SpanExporter spanExporter = new MeteredSpanExporter(http
+            ? OtlpHttpSpanExporter.builder().setEndpoint(endpoint + "/v1/traces").setTimeout(timeout).build()
+            : OtlpGrpcSpanExporter.builder().setEndpoint(endpoint).setTimeout(timeout).build(), exportMetrics);
+        if (buffered) {
+            spanExporter = new DiskBufferedSpanExporter(spanExporter,
+                createBuffer("traces", http ? endpoint : null, meterProviderHolder));
+        }
+        // TOSHOW: the queue bounds the memory, a full queue drops the spans, the dropped spans are counted
+        BatchSpanProcessor spanProcessor = BatchSpanProcessor.builder(spanExporter)
+            .setMaxQueueSize(Config.getInt("jug.otel.bsp.max.queue.size", 2048))
+            .setMaxExportBatchSize(Config.getInt("jug.otel.bsp.max.export.batch.size", 512))
+            .setScheduleDelay(Config.getDuration("jug.otel.bsp.schedule.delay", Duration.ofSeconds(5)))
+            .setExporterTimeout(Config.getDuration("jug.otel.bsp.export.timeout", Duration.ofSeconds(30)))
+            .setMeterProvider(meterProvider)
+            .build();
+        SdkTracerProvider tracerProvider = SdkTracerProvider.builder()
+            .addSpanProcessor(spanProcessor)
+            .setResource(resource)
+            .build();
+
+        return OpenTelemetrySdk.builder()
+            .setTracerProvider(tracerProvider)
+            .setMeterProvider(meterProvider)
+            .setPropagators(ContextPropagators.create(W3CTraceContextPropagator.getInstance()))
+            .build();
+    }
+
+    /**
+     * The disk buffer of a signal, its metrics are registered on the first export, once the meter provider exists
+     */
+    private static DiskBuffer createBuffer(String signal, String httpEndpoint, SdkMeterProvider[] meterProviderHolder) throws IOException {
+        Path directory = Path.of(Config.get("jug.otel.buffer.directory",
+            Path.of(System.getProperty("java.io.tmpdir"), "jug-otel-buffer", "java-main").toString()));
+        return new DiskBuffer(signal, directory.resolve(signal),
+            Config.getLong("jug.otel.buffer.max.bytes", 256L * 1024 * 1024),
+            Config.getInt("jug.otel.buffer.segment.bytes", 8 * 1024 * 1024),
+            Config.get("jug.otel.buffer.endpoint", httpEndpoint != null ? httpEndpoint : "http://localhost:4318"),
+            // the exporters send no headers and no compression either
+            Map.of(), false,
+            Config.getLong("jug.otel.buffer.replay.bytes.per.second", 1024 * 1024),
+            () -> meterProviderHolder[0].get("java-main-export"));
+    }
+
+    /**
+     * Duration and items of the exports
+     */
+    private static final class ExportMetrics {
+
+        private final Supplier<MeterProvider> meterProvider;
+        private volatile DoubleHistogram duration;
+        private volatile LongCounter items;
+
+        ExportMetrics(Supplier<MeterProvider> meterProvider) {
+            this.meterProvider = meterProvider;
+        }
+
+        void record(String signal, int count, long startNanos, boolean success) {
+            if (items == null) {
+                register();
+            }
+            Attributes attributes = Attributes.of(SIGNAL_KEY, signal, SUCCESS_KEY, success);
+            duration.record((System.nanoTime() - startNanos) / 1e6, attributes);
+            items.add(count, attributes);
+        }
+
+        private synchronized void register() {
+            if (items == null) {
+                Meter meter = meterProvider.get().get("java-main-export");
+                duration = meter.histogramBuilder("jug.otel.export.duration")
+                    .setDescription("Duration of the telemetry exports")
+                    .setUnit("ms")
+                    .build();
+                items = meter.counterBuilder("jug.otel.export.items")
+                    .setDescription("Spans or metrics exported, the failed ones are not received by the collector")
+                    .build();
+            }
+        }
+    }
+
+    private static final class MeteredSpanExporter implements SpanExporter {
+
+        private final SpanExporter delegate;
+        private final ExportMetrics metrics;
+
+        MeteredSpanExporter(SpanExporter delegate, ExportMetrics metrics) {
+            this.delegate = delegate;
+            this.metrics = metrics;
+        }
+
+        @Override
+        public CompletableResultCode export(Collection<SpanData> spans) {
+            long start = System.nanoTime();
+            CompletableResultCode result = delegate.export(spans);
+            result.whenComplete(() -> metrics.record("traces", spans.size(), start, result.isSuccess()));
+            return result;
+        }
+
+        @Override
+        public CompletableResultCode flush() {
+            return delegate.flush();
+        }
+
+        @Override
+        public CompletableResultCode shutdown() {
+            return delegate.shutdown();
+        }
+    }
+
+    private static final class MeteredMetricExporter implements MetricExporter {
+
+        private final MetricExporter delegate;
+        private final ExportMetrics metrics;
+
+        MeteredMetricExporter(MetricExporter delegate, ExportMetrics metrics) {
+            this.delegate = delegate;
+            this.metrics = metrics;
+        }
+
+        @Override
+        public AggregationTemporality getAggregationTemporality(InstrumentType instrumentType) {
+            return delegate.getAggregationTemporality(instrumentType);
+        }
+
+        @Override
+        public CompletableResultCode export(Collection<MetricData> metricData) {
+            long start = System.nanoTime();
+            CompletableResultCode result = delegate.export(metricData);
+            result.whenComplete(() -> metrics.record("metrics", metricData.size(), start, result.isSuccess()));
+            return result;
+        }
+
+        @Override
+        public CompletableResultCode flush() {
+            return delegate.flush();
+        }
+
+        @Override
+        public CompletableResultCode shutdown() {
+            return delegate.shutdown();
+        }
+    }
+}
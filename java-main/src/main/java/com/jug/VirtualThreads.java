@@ -0,0 +1,51 @@
+package com.jug;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Create an executor running each task on a virtual thread
+ * 
+ * The project targets java 17, so virtual threads are looked up by reflection: they are used when the
+ * application runs on java 21+, otherwise the executor falls back to a cached pool of platform threads.
+ */
+final class VirtualThreads {
+
+    private static final Logger LOGGER = Logger.getLogger("VirtualThreads");
+
+    private VirtualThreads() {
+    }
+
+    static ExecutorService newExecutor(String namePrefix) {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            LOGGER.log(Level.INFO, "Using virtual threads for {0}", namePrefix);
+            return (ExecutorService) method.invoke(null);
+        } catch (ReflectiveOperationException ex) {
+            LOGGER.log(Level.INFO, "Virtual threads not available, using platform threads for {0}", namePrefix);
+            return Executors.newCachedThreadPool(new NamedDaemonThreadFactory(namePrefix));
+        }
+    }
+
+    private static class NamedDaemonThreadFactory implements ThreadFactory {
+
+        private final String namePrefix;
+        private final AtomicInteger counter = new AtomicInteger();
+
+        NamedDaemonThreadFactory(String namePrefix) {
+            this.namePrefix = namePrefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, namePrefix + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.jug.sink;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A local OTLP/HTTP receiver (protobuf encoding), which counts the received telemetry instead of storing it
+ *
+ * It replaces the collector for the overhead benchmarks: {@code POST /v1/traces}, {@code /v1/metrics} and {@code /v1/logs}
+ * count the requests, the bytes and the spans, metrics or log records, and keep the time of the first and last request.
+ * {@code GET /stats} returns the counts as json, {@code POST /reset} sets them back to zero.
+ *
+ * Only the JDK http server is used: there is no http/2, so no OTLP/gRPC, the exporters must use {@code http/protobuf}.
+ *
+ * Usage: {@code OtlpSink [port]} (default 4318)
+ */
+public final class OtlpSink {
+
+    private static final Logger LOGGER = Logger.getLogger("OtlpSink");
+
+    // path to the counted items in the export request: resource_* (1) > scope_* (2) > span, metric or log record (2)
+    private static final int[] ITEMS_PATH = {1, 2, 2};
+
+    private final Map<String, SignalStats> stats = new LinkedHashMap<>();
+
+    private OtlpSink() {
+        stats.put("traces", new SignalStats());
+        stats.put("metrics", new SignalStats());
+        stats.put("logs", new SignalStats());
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 4318;
+        OtlpSink sink = new OtlpSink();
+        HttpServer server = HttpServer.create(new InetSocketAddress(port), 1024);
+        sink.stats.forEach((signal, signalStats) -> server.createContext("/v1/" + signal, exchange -> sink.receive(exchange, signalStats)));
+        server.createContext("/stats", sink::sendStats);
+        server.createContext("/reset", sink::reset);
+        server.setExecutor(Executors.newFixedThreadPool(4));
+        server.start();
+        LOGGER.log(Level.INFO, "OTLP/HTTP sink listening on port {0}", port);
+
+        ScheduledExecutorService printer = Executors.newSingleThreadScheduledExecutor();
+        printer.scheduleAtFixedRate(() -> LOGGER.log(Level.INFO, sink.statsJson()), 10, 10, TimeUnit.SECONDS);
+    }
+
+    private void receive(HttpExchange exchange, SignalStats signalStats) throws IOException {
+        try (exchange) {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = readBody(exchange);
+            long items;
+            try {
+                items = ProtoCounter.count(body, ITEMS_PATH);
+            } catch (IllegalArgumentException ex) {
+                LOGGER.log(Level.WARNING, "Invalid protobuf payload: {0}", ex.getMessage());
+                exchange.sendResponseHeaders(400, -1);
+                return;
+            }
+            signalStats.record(body.length, items);
+            // an empty Export*ServiceResponse: full success
+            exchange.getResponseHeaders().add("Content-Type", "application/x-protobuf");
+            exchange.sendResponseHeaders(200, -1);
+        }
+    }
+
+    private static byte[] readBody(HttpExchange exchange) throws IOException {
+        boolean gzip = "gzip".equalsIgnoreCase(exchange.getRequestHeaders().getFirst("Content-Encoding"));
+        try (InputStream input = gzip ? new GZIPInputStream(exchange.getRequestBody()) : exchange.getRequestBody()) {
+            return input.readAllBytes();
+        }
+    }
+
+    private void sendStats(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            byte[] json = statsJson().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, json.length);
+            try (OutputStream output = exchange.getResponseBody()) {
+                output.write(json);
+            }
+        }
+    }
+
+    private void reset(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            stats.values().forEach(SignalStats::reset);
+            exchange.sendResponseHeaders(204, -1);
+        }
+    }
+
+    private String statsJson() {
+        StringBuilder json = new StringBuilder("{");
+        stats.forEach((signal, signalStats) -> {
+            if (json.length() > 1) {
+                json.append(',');
+            }
+            json.append('"').append(signal).append("\":");
+            signalStats.appendJson(json);
+        });
+        return json.append('}').toString();
+    }
+
+    private static final class SignalStats {
+
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        private final LongAdder items = new LongAdder();
+        private final AtomicLong firstMillis = new AtomicLong();
+        private final AtomicLong lastMillis = new AtomicLong();
+
+        void record(long size, long count) {
+            long now = System.currentTimeMillis();
+            requests.increment();
+            bytes.add(size);
+            items.add(count);
+            firstMillis.compareAndSet(0, now);
+            lastMillis.accumulateAndGet(now, Math::max);
+        }
+
+        void reset() {
+            requests.reset();
+            bytes.reset();
+            items.reset();
+            firstMillis.set(0);
+            lastMillis.set(0);
+        }
+
+        void appendJson(StringBuilder json) {
+            json.append("{\"requests\":").append(requests.sum())
+                .append(",\"bytes\":").append(bytes.sum())
+                .append(",\"items\":").append(items.sum())
+                .append(",\"first\":").append(instant(firstMillis.get()))
+                .append(",\"last\":").append(instant(lastMillis.get()))
+                .append('}');
+        }
+
+        private static String instant(long millis) {
+            return millis == 0 ? "null" : '"' + Instant.ofEpochMilli(millis).toString() + '"';
+        }
+    }
+}
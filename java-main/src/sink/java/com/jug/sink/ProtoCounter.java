@@ -0,0 +1,73 @@
+package com.jug.sink;
+
+/**
+ * Count the occurrences of a nested field in a protobuf message, reading only the wire format
+ *
+ * No generated classes are needed: the fields are only skipped, except the length-delimited ones on the path,
+ * which are entered without being copied.
+ */
+final class ProtoCounter {
+
+    private static final int WIRE_VARINT = 0;
+    private static final int WIRE_FIXED64 = 1;
+    private static final int WIRE_LENGTH_DELIMITED = 2;
+    private static final int WIRE_FIXED32 = 5;
+
+    private ProtoCounter() {
+    }
+
+    /**
+     * Count the fields at the end of the path: {@code {1, 2, 2}} counts the fields 2 of the fields 2 of the fields 1 of the message
+     *
+     * @throws IllegalArgumentException if the message is not valid
+     */
+    static long count(byte[] message, int[] path) {
+        return count(message, 0, message.length, path, 0);
+    }
+
+    private static long count(byte[] buffer, int start, int end, int[] path, int depth) {
+        long count = 0;
+        int[] position = {start};
+        while (position[0] < end) {
+            long key = readVarint(buffer, position, end);
+            int fieldNumber = (int) (key >>> 3);
+            int wireType = (int) (key & 0x7);
+            switch (wireType) {
+                case WIRE_VARINT -> readVarint(buffer, position, end);
+                case WIRE_FIXED64 -> position[0] += 8;
+                case WIRE_FIXED32 -> position[0] += 4;
+                case WIRE_LENGTH_DELIMITED -> {
+                    long length = readVarint(buffer, position, end);
+                    if (length < 0 || position[0] + length > end) {
+                        throw new IllegalArgumentException("Truncated field " + fieldNumber);
+                    }
+                    int fieldEnd = position[0] + (int) length;
+                    if (fieldNumber == path[depth]) {
+                        count += (depth == path.length - 1) ? 1 : count(buffer, position[0], fieldEnd, path, depth + 1);
+                    }
+                    position[0] = fieldEnd;
+                }
+                default -> throw new IllegalArgumentException("Unsupported wire type " + wireType);
+            }
+        }
+        if (position[0] != end) {
+            throw new IllegalArgumentException("Truncated message");
+        }
+        return count;
+    }
+
+    private static long readVarint(byte[] buffer, int[] position, int end) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (position[0] >= end) {
+                throw new IllegalArgumentException("Truncated varint");
+            }
+            byte b = buffer[position[0]++];
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+}
@@ -0,0 +1,23 @@
+package com.jug.worker;
+
+import java.util.List;
+
+/**
+ * Result of a batch creation: the number of created persons, of first names which already exist and of invalid items
+ * 
+ * Only the first {@link #MAX_INVALID_ITEMS} invalid items are detailed, so the result stays small whatever the body size.
+ */
+public record BatchResult(long created, long conflicts, long invalid, List<InvalidItem> invalidItems) {
+
+  public static final int MAX_INVALID_ITEMS = 100;
+
+  /**
+   * An item skipped by the batch, by its position in the body (the line of a ndjson body, starting at 1)
+   */
+  public record InvalidItem(long item, String reason) {
+  }
+
+  BatchResult withInvalid(long invalid, List<InvalidItem> invalidItems) {
+    return new BatchResult(created, conflicts, invalid, invalidItems);
+  }
+}
@@ -0,0 +1,117 @@
+package com.jug.worker;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.instrumentation.annotations.WithSpan;
+
+/**
+ * Insert persons by chunks of {@code jug.person.batch.size}, each chunk in its own transaction
+ * 
+ * The inserts of a chunk are sent as one JDBC batch (see {@code hibernate.jdbc.batch_size}).
+ * A first name already in database is reported as a conflict without failing the chunk: 
+ * the names which may exist according to the {@link PersonNameIndex} are looked up before the insert 
+ * (no query when all the names are new), and if a concurrent request inserts one of the names meanwhile,
+ * the chunk is retried one person at a time.
+ */
+@Service
+public class PersonBatchService {
+
+  private final PersonRepository repository;
+  private final PersonCache personCache;
+  private final PersonCounter personCounter;
+  private final PersonNameIndex personNameIndex;
+  private final MeterRegistry meterRegistry;
+  private final TransactionTemplate transactionTemplate;
+  private final int batchSize;
+
+  public PersonBatchService(PersonRepository repository, PersonCache personCache, PersonCounter personCounter,
+      PersonNameIndex personNameIndex, MeterRegistry meterRegistry, TransactionTemplate transactionTemplate,
+      @Value("${jug.person.batch.size:50}") int batchSize) {
+    this.repository = repository;
+    this.personCache = personCache;
+    this.personCounter = personCounter;
+    this.personNameIndex = personNameIndex;
+    this.meterRegistry = meterRegistry;
+    this.transactionTemplate = transactionTemplate;
+    this.batchSize = batchSize;
+  }
+
+  /**
+   * Create the persons with the provided first names, reading the names as they come
+   * 
+   * Only the counts are kept, not the created persons, so a large batch does not hold its persons in memory.
+   */
+  public BatchResult createPersons(Iterator<String> firstNames) {
+    Counts counts = new Counts();
+    Set<String> chunk = new LinkedHashSet<>();
+    while (firstNames.hasNext()) {
+      String firstName = firstNames.next();
+      if (!chunk.add(firstName)) {
+        // duplicate in the same chunk
+        counts.conflicts++;
+        meterRegistry.counter("jug_create_conflicts_total", "detected", "duplicate").increment();
+      }
+      if (chunk.size() == batchSize) {
+        insertChunk(chunk, counts);
+        chunk.clear();
+      }
+    }
+    if (!chunk.isEmpty()) {
+      insertChunk(chunk, counts);
+    }
+    return new BatchResult(counts.created, counts.conflicts, 0, List.of());
+  }
+
+  @WithSpan
+  private void insertChunk(Set<String> firstNames, Counts counts) {
+    Span.current().setAttribute("jug.chunk.size", firstNames.size());
+    List<String> maybeExisting = firstNames.stream().filter(personNameIndex::mightContain).toList();
+    List<String> existing = maybeExisting.isEmpty() ? List.of() : repository.findExistingFirstNames(maybeExisting);
+    personNameIndex.falsePositive(maybeExisting.size() - existing.size());
+    counts.conflicts += existing.size();
+    meterRegistry.counter("jug_create_conflicts_total", "detected", "lookup").increment(existing.size());
+    List<String> toInsert = new ArrayList<>(firstNames);
+    toInsert.removeAll(existing);
+    if (toInsert.isEmpty()) {
+      return;
+    }
+
+    List<Person> saved;
+    try {
+      saved = transactionTemplate.execute(status -> repository.saveAll(toInsert.stream().map(Person::new).toList()));
+    } catch (DataIntegrityViolationException ex) {
+      // a name was inserted by a concurrent request, retry one person at a time
+      saved = new ArrayList<>();
+      for (String firstName : toInsert) {
+        try {
+          saved.add(transactionTemplate.execute(status -> repository.save(new Person(firstName))));
+        } catch (DataIntegrityViolationException conflict) {
+          counts.conflicts++;
+          meterRegistry.counter("jug_create_conflicts_total", "detected", "constraint").increment();
+        }
+      }
+    }
+    saved.forEach(person -> {
+      personNameIndex.add(person.getFirstName());
+      personCache.put(person);
+    });
+    personCounter.increment(saved.size());
+    counts.created += saved.size();
+  }
+
+  private static final class Counts {
+    private long created;
+    private long conflicts;
+  }
+}
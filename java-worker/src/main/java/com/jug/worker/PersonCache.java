@@ -0,0 +1,62 @@
+package com.jug.worker;
+
+import java.time.Duration;
+import java.util.Optional;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import io.opentelemetry.api.trace.Span;
+
+/**
+ * A bounded cache of the persons read by id, in front of the repository
+ * 
+ * The entries expire after {@code jug.cache.person.ttl} and the cache keeps at most {@code jug.cache.person.max-size} persons.
+ * Only found persons are cached, so a created person never hides behind a cached "not found".
+ */
+@Component
+public class PersonCache {
+
+  private final PersonRepository repository;
+  private final Cache<Long, Person> cache;
+
+  public PersonCache(PersonRepository repository, MeterRegistry meterRegistry,
+      @Value("${jug.cache.person.max-size:10000}") long maxSize,
+      @Value("${jug.cache.person.ttl:60s}") Duration ttl) {
+    this.repository = repository;
+    this.cache = Caffeine.newBuilder()
+        .maximumSize(maxSize)
+        .expireAfterWrite(ttl)
+        .recordStats()
+        .build();
+    // TOSHOW: micrometer cache metrics (hits, misses, evictions, size)
+    CaffeineCacheMetrics.monitor(meterRegistry, cache, "persons");
+  }
+
+  /**
+   * Return the person associated to the provided id, from the cache if present
+   */
+  public Optional<Person> findById(long id) {
+    Person person = cache.getIfPresent(id);
+    // TOSHOW: span attribute on the current span, created by the agent
+    Span.current().setAttribute("jug.cache.hit", person != null);
+    if (person != null) {
+      return Optional.of(person);
+    }
+    Optional<Person> found = repository.findById(id);
+    found.ifPresent(res -> cache.put(id, res));
+    return found;
+  }
+
+  /**
+   * Update the cache after a person was saved
+   */
+  public void put(Person person) {
+    cache.put(person.getId(), person);
+  }
+}
@@ -0,0 +1,37 @@
+package com.jug.worker;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Number of persons in database, maintained in memory
+ * 
+ * The counter is incremented on each successful save, so reading it never touches the database.
+ * It is reconciled with a {@code SELECT COUNT(*)} at startup then every {@code jug.person.count.reconcile-rate} milliseconds,
+ * on the scheduler thread, to fix any drift (for example a save committed while the reconciliation query runs).
+ */
+@Component
+public class PersonCounter {
+
+  private final PersonRepository repository;
+  private final AtomicLong count = new AtomicLong();
+
+  public PersonCounter(PersonRepository repository) {
+    this.repository = repository;
+  }
+
+  public void increment(long added) {
+    count.addAndGet(added);
+  }
+
+  public long get() {
+    return count.get();
+  }
+
+  @Scheduled(fixedRateString = "${jug.person.count.reconcile-rate:60000}")
+  public void reconcile() {
+    count.set(repository.count());
+  }
+}
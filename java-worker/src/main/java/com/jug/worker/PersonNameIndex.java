@@ -0,0 +1,149 @@
+package com.jug.worker;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.opentelemetry.instrumentation.annotations.WithSpan;
+
+/**
+ * A Bloom filter of the first names in database, checked before an insert
+ * 
+ * {@link #mightContain(String)} answers "definitely absent" (the insert can go on without a lookup) 
+ * or "maybe present" (a lookup is needed, it finds the name or it is a false positive).
+ * So a conflict is found by a read-only query instead of a failed insert, its rollback and its exception.
+ * 
+ * The filter is sized for {@code jug.person.name-index.expected-names} names with a false positive rate of
+ * {@code jug.person.name-index.fpp}; with more names, the rate grows (see the {@code jug_name_index_fpp} gauge).
+ * It is warmed from the database when the application is ready, until then every name is "maybe present".
+ * Names are only added (there is no delete of persons), the unique constraint stays the final check.
+ */
+@Component
+public class PersonNameIndex {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(PersonNameIndex.class);
+  private static final int WARMUP_PAGE_SIZE = 1000;
+
+  private final PersonRepository repository;
+  private final AtomicLongArray bits;
+  private final long bitCount;
+  private final int hashCount;
+  private final Counter absent;
+  private final Counter present;
+  private final Counter falsePositives;
+  private volatile boolean ready;
+
+  public PersonNameIndex(PersonRepository repository, MeterRegistry meterRegistry,
+      @Value("${jug.person.name-index.expected-names:100000}") long expectedNames,
+      @Value("${jug.person.name-index.fpp:0.01}") double fpp) {
+    this.repository = repository;
+    // optimal size and number of hashes of a Bloom filter: m = -n ln(p) / ln(2)^2, k = m/n ln(2)
+    long size = (long) Math.ceil(-expectedNames * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+    this.bits = new AtomicLongArray((int) ((size + 63) / 64));
+    this.bitCount = bits.length() * 64L;
+    this.hashCount = Math.max(1, (int) Math.round((double) bitCount / expectedNames * Math.log(2)));
+    this.absent = meterRegistry.counter("jug_name_index_checks_total", "result", "absent");
+    this.present = meterRegistry.counter("jug_name_index_checks_total", "result", "present");
+    this.falsePositives = meterRegistry.counter("jug_name_index_false_positives_total");
+    // TOSHOW: micrometer gauge computed at collection time
+    Gauge.builder("jug_name_index_fpp", this, PersonNameIndex::expectedFpp)
+        .description("False positive rate of the first name index, from its fill ratio")
+        .register(meterRegistry);
+  }
+
+  @EventListener(ApplicationReadyEvent.class)
+  @WithSpan
+  public void warm() {
+    long count = 0;
+    Long afterId = 0L;
+    while (afterId != null) {
+      List<Person> page = repository.findByIdGreaterThanOrderByIdAsc(afterId, PageRequest.ofSize(WARMUP_PAGE_SIZE));
+      page.forEach(person -> add(person.getFirstName()));
+      count += page.size();
+      afterId = page.size() < WARMUP_PAGE_SIZE ? null : page.get(page.size() - 1).getId();
+    }
+    ready = true;
+    LOGGER.info("First name index warmed with {} names, {} bits and {} hashes", count, bitCount, hashCount);
+  }
+
+  /**
+   * Return {@code false} if the name is definitely not in database, {@code true} if it may be
+   */
+  public boolean mightContain(String firstName) {
+    if (!ready) {
+      present.increment();
+      return true;
+    }
+    long hash = hash(firstName);
+    int h1 = (int) hash;
+    int h2 = (int) (hash >>> 32);
+    for (int i = 0; i < hashCount; i++) {
+      long bit = Integer.toUnsignedLong(h1 + i * h2) % bitCount;
+      if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+        absent.increment();
+        return false;
+      }
+    }
+    present.increment();
+    return true;
+  }
+
+  /**
+   * Add a name saved in database
+   */
+  public void add(String firstName) {
+    long hash = hash(firstName);
+    int h1 = (int) hash;
+    int h2 = (int) (hash >>> 32);
+    for (int i = 0; i < hashCount; i++) {
+      long bit = Integer.toUnsignedLong(h1 + i * h2) % bitCount;
+      int index = (int) (bit >>> 6);
+      long mask = 1L << bit;
+      long word = bits.get(index);
+      // most bits are already set once the index is warm: no write then
+      while ((word & mask) == 0 && !bits.compareAndSet(index, word, word | mask)) {
+        word = bits.get(index);
+      }
+    }
+  }
+
+  /**
+   * Record that a "maybe present" name was not in database
+   */
+  public void falsePositive(int count) {
+    falsePositives.increment(count);
+  }
+
+  private double expectedFpp() {
+    long set = 0;
+    for (int i = 0; i < bits.length(); i++) {
+      set += Long.bitCount(bits.get(i));
+    }
+    return Math.pow((double) set / bitCount, hashCount);
+  }
+
+  // FNV-1a over the chars, then the murmur3 finalizer to spread the bits over the two 32 bits halves
+  private static long hash(String value) {
+    long hash = 0xcbf29ce484222325L;
+    for (int i = 0; i < value.length(); i++) {
+      hash ^= value.charAt(i);
+      hash *= 0x100000001b3L;
+    }
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb9fe1a85ec53L;
+    hash ^= hash >>> 33;
+    return hash;
+  }
+}
@@ -0,0 +1,9 @@
+package com.jug.worker;
+
+import java.util.List;
+
+/**
+ * A page of persons ordered by id, {@code nextAfterId} is the {@code afterId} of the next page, or {@code null} on the last page
+ */
+public record PersonPage(List<Person> persons, Long nextAfterId) {
+}
@@ -0,0 +1,40 @@
+package com.jug.worker;
+
+import java.util.List;
+
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.opentelemetry.instrumentation.annotations.SpanAttribute;
+import io.opentelemetry.instrumentation.annotations.WithSpan;
+
+/**
+ * Read the persons page by page, using keyset pagination on the id
+ * 
+ * Each page is a {@code WHERE id > :afterId ORDER BY id LIMIT :size} query: it uses the primary key index, 
+ * so reading a page costs the same whatever its depth, unlike an {@code OFFSET}.
+ */
+@Service
+public class PersonPageService {
+
+  private final PersonRepository repository;
+  private final Counter pages;
+  private final Counter persons;
+
+  public PersonPageService(PersonRepository repository, MeterRegistry meterRegistry) {
+    this.repository = repository;
+    this.pages = meterRegistry.counter("jug_person_pages_total");
+    this.persons = meterRegistry.counter("jug_person_pages_persons_total");
+  }
+
+  @WithSpan
+  public PersonPage page(@SpanAttribute("after.id") long afterId, @SpanAttribute("page.size") int size) {
+    List<Person> page = repository.findByIdGreaterThanOrderByIdAsc(afterId, PageRequest.ofSize(size));
+    pages.increment();
+    persons.increment(page.size());
+    Long nextAfterId = page.size() < size ? null : page.get(page.size() - 1).getId();
+    return new PersonPage(page, nextAfterId);
+  }
+}
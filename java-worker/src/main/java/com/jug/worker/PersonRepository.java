@@ -1,8 +1,27 @@
 package com.jug.worker;
 
+import java.util.Collection;
+import java.util.List;
+
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
 public interface PersonRepository extends JpaRepository<Person, Long> {
 
     long countByFirstName(String firstName);
+
+    boolean existsByFirstName(String firstName);
+
+    /**
+     * Return the provided first names which are already in database
+     */
+    @Query("select p.firstName from Person p where p.firstName in :firstNames")
+    List<String> findExistingFirstNames(@Param("firstNames") Collection<String> firstNames);
+
+    /**
+     * Return the persons with an id greater than the provided one (keyset pagination), without counting the total
+     */
+    List<Person> findByIdGreaterThanOrderByIdAsc(long id, Pageable pageable);
 }
\ No newline at end of file
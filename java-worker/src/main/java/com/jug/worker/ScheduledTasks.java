@@ -1,11 +1,15 @@
 package com.jug.worker;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
 @Component
 public class ScheduledTasks {
 
+  private static final Logger LOGGER = LoggerFactory.getLogger(ScheduledTasks.class);
+
   private final PersonRepository personRepository;
 
   public ScheduledTasks(PersonRepository personRepository) {
@@ -18,5 +22,7 @@ public class ScheduledTasks {
   @Scheduled(fixedRate = 5000)
   public void executeSql() {
     personRepository.countByFirstName("jugmontreal");
+    // the log pattern shows the trace_id/span_id of the agent span, also on a virtual thread
+    LOGGER.debug("Persons counted on {}", Thread.currentThread());
   }
 }
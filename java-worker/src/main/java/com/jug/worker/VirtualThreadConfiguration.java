@@ -0,0 +1,77 @@
+package com.jug.worker;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+import org.springframework.scheduling.annotation.SchedulingConfigurer;
+import org.springframework.scheduling.config.ScheduledTaskRegistrar;
+
+import io.opentelemetry.context.Context;
+
+/**
+ * Run the tomcat requests, the async requests (streamed responses) and the {@code @Scheduled} tasks on virtual threads
+ * 
+ * Enabled with {@code jug.threads.virtual=true} (see the {@code virtual} profile), it needs java 21+:
+ * on an older java, the default platform thread pools are kept.
+ * 
+ * The concurrency is then limited by the Hikari pool, not by the number of threads: a request waiting for
+ * a connection only parks its virtual thread.
+ */
+@Configuration(proxyBeanMethods = false)
+@ConditionalOnProperty(name = "jug.threads.virtual", havingValue = "true")
+public class VirtualThreadConfiguration {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(VirtualThreadConfiguration.class);
+
+  /**
+   * Each tomcat request runs on a new virtual thread, instead of the 200 threads of the default pool
+   */
+  @Bean
+  public TomcatProtocolHandlerCustomizer<?> virtualThreadProtocolHandlerCustomizer() {
+    return protocolHandler -> VirtualThreads.factory("tomcat-virtual-").ifPresentOrElse(
+        factory -> protocolHandler.setExecutor(perTaskExecutor(factory)),
+        () -> LOGGER.warn("Virtual threads not available (java 21+ is needed), tomcat keeps its platform threads"));
+  }
+
+  /**
+   * Executor of the async requests ({@code StreamingResponseBody}), replaces the default {@code applicationTaskExecutor}
+   */
+  @Bean(name = { "applicationTaskExecutor", "taskExecutor" })
+  public AsyncTaskExecutor applicationTaskExecutor() {
+    return new TaskExecutorAdapter(VirtualThreads.factory("task-virtual-")
+        .map(VirtualThreadConfiguration::perTaskExecutor)
+        .orElseGet(Executors::newCachedThreadPool));
+  }
+
+  /**
+   * The scheduler threads are virtual too: a scheduled task blocked on the database does not hold a platform thread,
+   * and several tasks can run at the same time
+   */
+  @Bean(destroyMethod = "shutdown")
+  public ScheduledExecutorService taskScheduler(@Value("${jug.threads.scheduling.pool-size:4}") int poolSize) {
+    ThreadFactory factory = VirtualThreads.factory("scheduling-virtual-").orElseGet(Executors::defaultThreadFactory);
+    return Executors.newScheduledThreadPool(poolSize, factory);
+  }
+
+  @Bean
+  public SchedulingConfigurer virtualThreadSchedulingConfigurer(ScheduledExecutorService taskScheduler) {
+    return (ScheduledTaskRegistrar taskRegistrar) -> taskRegistrar.setScheduler(taskScheduler);
+  }
+
+  static Executor perTaskExecutor(ThreadFactory factory) {
+    // the agent only propagates the context through the JDK executors, not through this lambda:
+    // the task is wrapped to carry the context (and the span) of the caller to its virtual thread
+    return Context.taskWrapping(command -> factory.newThread(command).start());
+  }
+}
@@ -0,0 +1,30 @@
+package com.jug.worker;
+
+import java.lang.reflect.Method;
+import java.util.Optional;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Look up a factory of virtual threads
+ * 
+ * The project targets java 17, so virtual threads are looked up by reflection ({@code Thread.ofVirtual()}):
+ * they are available when the application runs on java 21+.
+ */
+final class VirtualThreads {
+
+  private VirtualThreads() {
+  }
+
+  static Optional<ThreadFactory> factory(String namePrefix) {
+    try {
+      Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+      Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+      builder = builderType.getMethod("name", String.class, long.class).invoke(builder, namePrefix, 0L);
+      Method factory = builderType.getMethod("factory");
+      return Optional.of((ThreadFactory) factory.invoke(builder));
+    } catch (ReflectiveOperationException | RuntimeException ex) {
+      // java 17, or java 19/20 without --enable-preview
+      return Optional.empty();
+    }
+  }
+}
@@ -1,15 +1,40 @@
 package com.jug.worker;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
 
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 
 import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import io.opentelemetry.instrumentation.annotations.SpanAttribute;
 import io.opentelemetry.instrumentation.annotations.WithSpan;
 
@@ -17,15 +42,33 @@ import io.opentelemetry.instrumentation.annotations.WithSpan;
 public class WorkerController {
 
   private static final int FAIL_RATE_PERCENT = 3;
+  private static final String APPLICATION_NDJSON = "application/x-ndjson";
+  private static final int MAX_PAGE_SIZE = 1000;
 
   private final Random random = new Random();
   private final PersonRepository repository;
+  private final PersonCache personCache;
+  private final PersonCounter personCounter;
+  private final PersonBatchService personBatchService;
+  private final PersonPageService personPageService;
+  private final PersonNameIndex personNameIndex;
+  private final ObjectMapper objectMapper;
   
   // micrometer registry
   private final MeterRegistry meterRegistry;
+  // request timers by endpoint and outcome, registered once
+  private final Map<String, Timer> requestTimers = new ConcurrentHashMap<>();
 
-  public WorkerController(PersonRepository repository, MeterRegistry meterRegistry) {
+  public WorkerController(PersonRepository repository, PersonCache personCache, PersonCounter personCounter,
+      PersonBatchService personBatchService, PersonPageService personPageService, PersonNameIndex personNameIndex,
+      ObjectMapper objectMapper, MeterRegistry meterRegistry) {
     this.repository = repository;
+    this.personCache = personCache;
+    this.personCounter = personCounter;
+    this.personBatchService = personBatchService;
+    this.personPageService = personPageService;
+    this.personNameIndex = personNameIndex;
+    this.objectMapper = objectMapper;
     this.meterRegistry = meterRegistry;
   }
 
@@ -38,20 +81,94 @@ public class WorkerController {
   public ResponseEntity<Person> createPerson(@PathVariable String firstName) {
     // TOSHOW: micrometer counter
     meterRegistry.counter("jug_create_request_total").increment();
-    
+    Timer.Sample sample = Timer.start(meterRegistry);
+    ResponseEntity<Person> response = null;
+    try {
+      response = doCreatePerson(firstName);
+      return response;
+    } finally {
+      stopTimer(sample, "create", response);
+    }
+  }
+
+  private ResponseEntity<Person> doCreatePerson(String firstName) {
     if (!randomlyFail(firstName)) {
       return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
     }
-    
+
+    // a known name is a conflict found by a read, without a failed insert
+    if (personNameIndex.mightContain(firstName)) {
+      if (repository.existsByFirstName(firstName)) {
+        meterRegistry.counter("jug_create_conflicts_total", "detected", "lookup").increment();
+        return ResponseEntity.status(HttpStatus.CONFLICT).build();
+      }
+      personNameIndex.falsePositive(1);
+    }
+
     try {
       Person person = new Person(firstName);
       repository.save(person);
+      personNameIndex.add(firstName);
+      personCache.put(person);
+      personCounter.increment(1);
       return ResponseEntity.ok(person);
     } catch (org.springframework.dao.DataIntegrityViolationException ex) {
+      // inserted by a concurrent request since the check
+      meterRegistry.counter("jug_create_conflicts_total", "detected", "constraint").increment();
       return ResponseEntity.status(HttpStatus.CONFLICT).build();
     }
   }
 
+  /**
+   * Create the persons from a json array of first names ({@code ["alice", "bob"]} or {@code [{"firstName": "alice"}]})
+   * 
+   * Return the number of created persons and of first names which already exist. The body is validated before the
+   * first insert: an item without first name fails the whole request (400) and nothing is created.
+   */
+  @PostMapping(path = "/person/batch", consumes = MediaType.APPLICATION_JSON_VALUE)
+  public BatchResult createPersons(@RequestBody List<JsonNode> firstNames) {
+    meterRegistry.counter("jug_create_batch_request_total").increment();
+    List<String> validated = firstNames.stream().map(WorkerController::firstNameOf).toList();
+    return personBatchService.createPersons(validated.iterator());
+  }
+
+  /**
+   * Same as {@link #createPersons(List)} with one first name per line (ndjson), the names are inserted while the body is read
+   * 
+   * A line which is not json or has no first name cannot fail the chunks already inserted: it is skipped and reported
+   * in the invalid items of the result.
+   */
+  @PostMapping(path = "/person/batch", consumes = APPLICATION_NDJSON)
+  public BatchResult createPersonsStream(InputStream body) {
+    meterRegistry.counter("jug_create_batch_request_total").increment();
+    BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+    NdjsonFirstNames firstNames = new NdjsonFirstNames(reader);
+    return personBatchService.createPersons(firstNames).withInvalid(firstNames.invalid, firstNames.invalidItems);
+  }
+
+  /**
+   * Any other content type is refused (415): without this mapping, the request would fall through to
+   * {@code POST /person/{firstName}} and create a person named "batch"
+   */
+  @PostMapping("/person/batch")
+  public BatchResult createPersonsUnsupported(@RequestHeader(name = HttpHeaders.CONTENT_TYPE, required = false) String contentType) {
+    throw new ResponseStatusException(HttpStatus.UNSUPPORTED_MEDIA_TYPE,
+        "Unsupported content type " + contentType + ", expected " + MediaType.APPLICATION_JSON_VALUE + " or " + APPLICATION_NDJSON);
+  }
+
+  private static String firstNameOf(JsonNode node) {
+    String firstName = firstNameOrNull(node);
+    if (firstName == null) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Missing first name in " + node);
+    }
+    return firstName;
+  }
+
+  private static String firstNameOrNull(JsonNode node) {
+    String firstName = node.isTextual() ? node.asText() : node.path("firstName").asText(null);
+    return firstName == null || firstName.isBlank() ? null : firstName;
+  }
+
   /**
    * Return the person associated to the provided id, or 404 if not associated person found.
    */
@@ -59,10 +176,70 @@ public class WorkerController {
   public ResponseEntity<Person> getPerson(@PathVariable long id) {
     // TOSHOW: micrometer counter
     meterRegistry.counter("jug_get_requests_total").increment();
-    
-    return repository.findById(id)
-        .map(res -> ResponseEntity.ok(res))
-        .orElse(ResponseEntity.status(HttpStatus.NOT_FOUND).build());
+    Timer.Sample sample = Timer.start(meterRegistry);
+    ResponseEntity<Person> response = null;
+    try {
+      response = personCache.findById(id)
+          .map(res -> ResponseEntity.ok(res))
+          .orElse(ResponseEntity.status(HttpStatus.NOT_FOUND).build());
+      return response;
+    } finally {
+      stopTimer(sample, "get", response);
+    }
+  }
+
+  /**
+   * Record the duration of a request in the {@code jug_request_duration} histogram, by endpoint and http status
+   * 
+   * The duration is recorded while the server span is current: with the agent, the bridged histogram attaches 
+   * the trace as an exemplar, so a slow bucket of the dashboard leads to a trace.
+   */
+  private void stopTimer(Timer.Sample sample, String endpoint, ResponseEntity<?> response) {
+    // no response: an exception, returned as a 500
+    String outcome = response != null ? String.valueOf(response.getStatusCode().value()) : "500";
+    // TOSHOW: micrometer timer with histogram buckets
+    sample.stop(requestTimers.computeIfAbsent(endpoint + ' ' + outcome, key -> Timer.builder("jug_request_duration")
+        .description("Duration of the person requests")
+        .tag("endpoint", endpoint)
+        .tag("outcome", outcome)
+        .publishPercentileHistogram()
+        .register(meterRegistry)));
+  }
+
+  /**
+   * Return the persons with an id greater than {@code afterId}, ordered by id
+   * 
+   * The next page is requested with the {@code nextAfterId} of the response
+   */
+  @GetMapping("/person")
+  public PersonPage listPersons(@RequestParam(defaultValue = "0") long afterId, @RequestParam(defaultValue = "100") int limit) {
+    return personPageService.page(afterId, Math.max(1, Math.min(limit, MAX_PAGE_SIZE)));
+  }
+
+  /**
+   * Stream all the persons with an id greater than {@code afterId}, one json object per line (ndjson)
+   * 
+   * The persons are read and written page by page, so the memory used does not depend on the number of persons
+   */
+  @GetMapping(path = "/person/export", produces = APPLICATION_NDJSON)
+  public ResponseEntity<StreamingResponseBody> exportPersons(@RequestParam(defaultValue = "0") long afterId) {
+    StreamingResponseBody body = out -> {
+      Long nextAfterId = afterId;
+      while (nextAfterId != null) {
+        PersonPage page = personPageService.page(nextAfterId, MAX_PAGE_SIZE);
+        writeNdjson(page.persons(), out);
+        nextAfterId = page.nextAfterId();
+      }
+    };
+    return ResponseEntity.ok().contentType(MediaType.parseMediaType(APPLICATION_NDJSON)).body(body);
+  }
+
+  private void writeNdjson(List<Person> persons, OutputStream out) throws IOException {
+    for (Person person : persons) {
+      out.write(objectMapper.writeValueAsBytes(person));
+      out.write('\n');
+    }
+    out.flush();
   }
 
   /**
@@ -75,4 +252,68 @@ public class WorkerController {
     return (random.nextInt(approximate_odds) != 0);
   }
 
+  /**
+   * Read the first names of a ndjson body line by line, skipping the blank lines and counting the invalid ones
+   */
+  private class NdjsonFirstNames implements Iterator<String> {
+
+    private final BufferedReader reader;
+    private final List<BatchResult.InvalidItem> invalidItems = new ArrayList<>();
+    private long invalid;
+    private long lineNumber;
+    private String next;
+
+    NdjsonFirstNames(BufferedReader reader) {
+      this.reader = reader;
+    }
+
+    @Override
+    public boolean hasNext() {
+      try {
+        while (next == null) {
+          String line = reader.readLine();
+          if (line == null) {
+            return false;
+          }
+          lineNumber++;
+          if (!line.isBlank()) {
+            next = parse(line);
+          }
+        }
+        return true;
+      } catch (IOException ex) {
+        // the body cannot be read anymore
+        throw new UncheckedIOException(ex);
+      }
+    }
+
+    private String parse(String line) {
+      String reason;
+      try {
+        String firstName = firstNameOrNull(objectMapper.readTree(line));
+        if (firstName != null) {
+          return firstName;
+        }
+        reason = "Missing first name";
+      } catch (JsonProcessingException ex) {
+        reason = "Invalid json: " + ex.getOriginalMessage();
+      }
+      invalid++;
+      if (invalidItems.size() < BatchResult.MAX_INVALID_ITEMS) {
+        invalidItems.add(new BatchResult.InvalidItem(lineNumber, reason));
+      }
+      return null;
+    }
+
+    @Override
+    public String next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      String result = next;
+      next = null;
+      return result;
+    }
+  }
+
 }
@@ -0,0 +1,45 @@
+package com.jug.worker;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanContext;
+import io.opentelemetry.api.trace.TraceFlags;
+import io.opentelemetry.api.trace.TraceState;
+import io.opentelemetry.context.Scope;
+
+class VirtualThreadConfigurationTest {
+
+  private static final String TRACE_ID = "0af7651916cd43dd8448eb211c80319c";
+  private static final String SPAN_ID = "b7ad6b7169203331";
+
+  @Test
+  void taskOnVirtualThreadKeepsTheTraceIdOfTheCaller() throws Exception {
+    Optional<ThreadFactory> factory = VirtualThreads.factory("test-virtual-");
+    assumeTrue(factory.isPresent(), "virtual threads need java 21+");
+    Executor executor = VirtualThreadConfiguration.perTaskExecutor(factory.get());
+
+    CompletableFuture<String> traceId = new CompletableFuture<>();
+    CompletableFuture<String> threadName = new CompletableFuture<>();
+    Span caller = Span.wrap(SpanContext.create(TRACE_ID, SPAN_ID, TraceFlags.getSampled(), TraceState.getDefault()));
+    try (Scope scope = caller.makeCurrent()) {
+      executor.execute(() -> {
+        threadName.complete(Thread.currentThread().getName());
+        traceId.complete(Span.current().getSpanContext().getTraceId());
+      });
+    }
+
+    assertTrue(threadName.get(5, TimeUnit.SECONDS).startsWith("test-virtual-"));
+    assertEquals(TRACE_ID, traceId.get(5, TimeUnit.SECONDS));
+  }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright The OpenTelemetry Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.example.javaagent;
+
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanContext;
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.api.trace.TraceFlags;
+import io.opentelemetry.api.trace.TraceState;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.sdk.trace.IdGenerator;
+import io.opentelemetry.sdk.trace.data.LinkData;
+import io.opentelemetry.sdk.trace.samplers.Sampler;
+import io.opentelemetry.sdk.trace.samplers.SamplingResult;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Measures the cost of {@link Sampler#shouldSample}, which runs on every span start in the agent.
+ *
+ * <p>Run with {@code ./gradlew jmh}: the gc profiler reports the allocations per call
+ * ({@code gc.alloc.rate.norm}), the {@code *Contended} benchmarks run on 4 threads sharing the
+ * same sampler.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SamplerBenchmark {
+
+  private static final List<LinkData> NO_LINKS = Collections.emptyList();
+
+  @Param({"demo", "alwaysOn", "parentBasedRatio", "rules", "rateLimited"})
+  public String sampler;
+
+  @Param({"sampled", "unsampled", "invalid"})
+  public String parent;
+
+  @Param({"ScheduledTasks.executeSql", "GET /person/id/{id}"})
+  public String spanName;
+
+  private Sampler samplerInstance;
+  private Context parentContext;
+  private String traceId;
+  private Attributes attributes;
+
+  @Setup
+  public void setup() {
+    samplerInstance = createSampler(sampler);
+    IdGenerator idGenerator = IdGenerator.random();
+    traceId = idGenerator.generateTraceId();
+    parentContext = createParentContext(parent, traceId, idGenerator.generateSpanId());
+    attributes = Attributes.empty();
+  }
+
+  static Sampler createSampler(String name) {
+    switch (name) {
+      case "demo":
+        return new DemoSampler();
+      case "alwaysOn":
+        return Sampler.alwaysOn();
+      case "parentBasedRatio":
+        return Sampler.parentBased(Sampler.traceIdRatioBased(0.1));
+      case "rules":
+        return new RuleBasedSampler(createRules(50));
+      case "rateLimited":
+        return new RateLimitingSampler(100, 1000);
+      default:
+        throw new IllegalArgumentException("Unknown sampler " + name);
+    }
+  }
+
+  /** Rules of every type, the executeSql rule being the last one. */
+  private static List<String> createRules(int count) {
+    List<String> rules = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      switch (i % 3) {
+        case 0:
+          rules.add("name=Service" + i + ".method;ratio=0.5");
+          break;
+        case 1:
+          rules.add("prefix=GET /api/v" + i + "/;kind=SERVER;ratio=0.1");
+          break;
+        default:
+          rules.add("regex=Job" + i + "\\..*;ratio=0");
+      }
+    }
+    rules.add("name=ScheduledTasks.executeSql;kind=INTERNAL;ratio=0");
+    return rules;
+  }
+
+  private static Context createParentContext(String parent, String traceId, String spanId) {
+    switch (parent) {
+      case "sampled":
+        return Context.root()
+            .with(Span.wrap(SpanContext.createFromRemoteParent(
+                traceId, spanId, TraceFlags.getSampled(), TraceState.getDefault())));
+      case "unsampled":
+        return Context.root()
+            .with(Span.wrap(SpanContext.createFromRemoteParent(
+                traceId, spanId, TraceFlags.getDefault(), TraceState.getDefault())));
+      case "invalid":
+        return Context.root();
+      default:
+        throw new IllegalArgumentException("Unknown parent " + parent);
+    }
+  }
+
+  @Benchmark
+  public SamplingResult shouldSample() {
+    return samplerInstance.shouldSample(
+        parentContext, traceId, spanName, SpanKind.INTERNAL, attributes, NO_LINKS);
+  }
+
+  @Benchmark
+  @Threads(4)
+  public SamplingResult shouldSampleContended() {
+    return samplerInstance.shouldSample(
+        parentContext, traceId, spanName, SpanKind.INTERNAL, attributes, NO_LINKS);
+  }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright The OpenTelemetry Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.example.javaagent;
+
+import io.opentelemetry.sdk.autoconfigure.spi.ConfigProperties;
+import io.opentelemetry.sdk.trace.export.SpanExporter;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Wraps the configured span exporters in an {@link AttributeGuardSpanExporter} when at least one
+ * attribute key is guarded.
+ *
+ * <p>Settings:
+ *
+ * <ul>
+ *   <li>{@code otel.jug.attributes.max.length}: maximum length by key, for example {@code
+ *       url.full=256,db.statement=1024}
+ *   <li>{@code otel.jug.attributes.hashed}: keys whose values are replaced by their hash
+ *   <li>{@code otel.jug.attributes.buckets}: number of buckets by key, for example {@code
+ *       firstName=16}
+ *   <li>{@code otel.jug.attributes.tracked}: keys whose distinct values are only counted
+ * </ul>
+ */
+final class AttributeGuardConfiguration {
+
+  private AttributeGuardConfiguration() {}
+
+  static SpanExporter wrapExporter(SpanExporter exporter, ConfigProperties config) {
+    Map<String, Integer> maxLengths = positiveInts(config, "otel.jug.attributes.max.length");
+    Set<String> hashedKeys = new HashSet<>(config.getList("otel.jug.attributes.hashed"));
+    Map<String, Integer> buckets = positiveInts(config, "otel.jug.attributes.buckets");
+    Set<String> trackedKeys = new HashSet<>(config.getList("otel.jug.attributes.tracked"));
+    if (maxLengths.isEmpty()
+        && hashedKeys.isEmpty()
+        && buckets.isEmpty()
+        && trackedKeys.isEmpty()) {
+      return exporter;
+    }
+    return new AttributeGuardSpanExporter(exporter, maxLengths, hashedKeys, buckets, trackedKeys);
+  }
+
+  private static Map<String, Integer> positiveInts(ConfigProperties config, String name) {
+    Map<String, Integer> values = new HashMap<>();
+    config
+        .getMap(name)
+        .forEach(
+            (key, value) -> {
+              int parsed;
+              try {
+                parsed = Integer.parseInt(value.trim());
+              } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid value of " + name + " for " + key, e);
+              }
+              if (parsed <= 0) {
+                throw new IllegalArgumentException(name + " must be positive for " + key);
+              }
+              values.put(key, parsed);
+            });
+    return values;
+  }
+}
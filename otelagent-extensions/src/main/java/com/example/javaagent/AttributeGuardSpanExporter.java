@@ -0,0 +1,196 @@
+/*
+ * Copyright The OpenTelemetry Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.example.javaagent;
+
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.common.AttributesBuilder;
+import io.opentelemetry.api.metrics.Meter;
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.trace.data.DelegatingSpanData;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.opentelemetry.sdk.trace.export.SpanExporter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounds the size and the cardinality of the string span attributes before their export.
+ *
+ * <p>For each configured attribute key, the value can be truncated to a maximum length, replaced by
+ * its hash (bounded size, the values can still be told apart), or replaced by one of a fixed number
+ * of buckets (bounded cardinality). The number of distinct original values of these keys is
+ * estimated with a {@link HyperLogLog} and exported as the {@code jug.attributes.distinct.values}
+ * gauge, the modified values are counted by {@code jug.attributes.guarded.values}.
+ *
+ * <p>The attributes are changed on the exported copy of the span only: the attributes set after the
+ * start of a span are guarded too, and the samplers and processors still see the original values.
+ */
+public class AttributeGuardSpanExporter implements SpanExporter {
+
+  private static final AttributeKey<String> ATTRIBUTE_KEY = AttributeKey.stringKey("attribute.key");
+  private static final AttributeKey<String> ACTION = AttributeKey.stringKey("action");
+
+  private final SpanExporter delegate;
+  private final Map<String, KeyGuard> guards = new HashMap<>();
+  private final LazyMetrics metrics = new LazyMetrics(this::registerMetrics);
+
+  /**
+   * @param maxLengths maximum length of the values, by attribute key
+   * @param hashedKeys the values of these attribute keys are replaced by their hash
+   * @param buckets number of buckets replacing the values, by attribute key
+   * @param trackedKeys the distinct values of these attribute keys are counted, without changing
+   *     them
+   */
+  public AttributeGuardSpanExporter(
+      SpanExporter delegate,
+      Map<String, Integer> maxLengths,
+      Set<String> hashedKeys,
+      Map<String, Integer> buckets,
+      Set<String> trackedKeys) {
+    this.delegate = delegate;
+    maxLengths.forEach((key, maxLength) -> guard(key).maxLength = maxLength);
+    hashedKeys.forEach(key -> guard(key).hashed = true);
+    buckets.forEach((key, count) -> guard(key).buckets = count);
+    trackedKeys.forEach(this::guard);
+  }
+
+  private KeyGuard guard(String key) {
+    return guards.computeIfAbsent(key, KeyGuard::new);
+  }
+
+  @Override
+  public CompletableResultCode export(Collection<SpanData> spans) {
+    metrics.ensureRegistered();
+    List<SpanData> guarded = new ArrayList<>(spans.size());
+    boolean changed = false;
+    for (SpanData span : spans) {
+      SpanData result = guardAttributes(span);
+      changed |= result != span;
+      guarded.add(result);
+    }
+    return delegate.export(changed ? guarded : spans);
+  }
+
+  private SpanData guardAttributes(SpanData span) {
+    Attributes attributes = span.getAttributes();
+    AttributesBuilder builder = null;
+    // a few guarded keys: look them up rather than iterating over all the attributes
+    for (KeyGuard guard : guards.values()) {
+      String value = attributes.get(guard.attributeKey);
+      if (value == null) {
+        continue;
+      }
+      String guardedValue = guard.apply(value);
+      if (!guardedValue.equals(value)) {
+        if (builder == null) {
+          builder = attributes.toBuilder();
+        }
+        builder.put(guard.attributeKey, guardedValue);
+      }
+    }
+    return builder == null ? span : new GuardedSpanData(span, builder.build());
+  }
+
+  private void registerMetrics(Meter meter) {
+    meter
+        .gaugeBuilder("jug.attributes.distinct.values")
+        .setDescription("Estimated number of distinct values of the guarded span attributes")
+        .ofLongs()
+        .buildWithCallback(
+            measurement ->
+                guards
+                    .values()
+                    .forEach(
+                        guard ->
+                            measurement.record(guard.distinct.estimate(), guard.keyAttributes)));
+    meter
+        .counterBuilder("jug.attributes.guarded.values")
+        .setDescription("Number of span attribute values truncated, hashed or bucketed")
+        .buildWithCallback(
+            measurement ->
+                guards
+                    .values()
+                    .forEach(
+                        guard -> {
+                          measurement.record(guard.truncated.sum(), guard.truncatedAttributes);
+                          measurement.record(guard.hashedCount.sum(), guard.hashedAttributes);
+                          measurement.record(guard.bucketed.sum(), guard.bucketedAttributes);
+                        }));
+  }
+
+  @Override
+  public CompletableResultCode flush() {
+    return delegate.flush();
+  }
+
+  @Override
+  public CompletableResultCode shutdown() {
+    return delegate.shutdown();
+  }
+
+  /** The policy and the statistics of one attribute key. */
+  private static final class KeyGuard {
+
+    private final AttributeKey<String> attributeKey;
+    private final HyperLogLog distinct = new HyperLogLog();
+    private final LongAdder truncated = new LongAdder();
+    private final LongAdder hashedCount = new LongAdder();
+    private final LongAdder bucketed = new LongAdder();
+    private final Attributes keyAttributes;
+    private final Attributes truncatedAttributes;
+    private final Attributes hashedAttributes;
+    private final Attributes bucketedAttributes;
+    private int maxLength;
+    private boolean hashed;
+    private int buckets;
+
+    KeyGuard(String key) {
+      this.attributeKey = AttributeKey.stringKey(key);
+      this.keyAttributes = Attributes.of(ATTRIBUTE_KEY, key);
+      this.truncatedAttributes = Attributes.of(ATTRIBUTE_KEY, key, ACTION, "truncated");
+      this.hashedAttributes = Attributes.of(ATTRIBUTE_KEY, key, ACTION, "hashed");
+      this.bucketedAttributes = Attributes.of(ATTRIBUTE_KEY, key, ACTION, "bucketed");
+    }
+
+    String apply(String value) {
+      long hash = HyperLogLog.hash(value);
+      distinct.add(hash);
+      if (buckets > 0) {
+        bucketed.increment();
+        return "bucket-" + Long.remainderUnsigned(hash, buckets);
+      }
+      if (hashed) {
+        hashedCount.increment();
+        return Long.toHexString(hash);
+      }
+      if (maxLength > 0 && value.length() > maxLength) {
+        truncated.increment();
+        return value.substring(0, maxLength);
+      }
+      return value;
+    }
+  }
+
+  private static final class GuardedSpanData extends DelegatingSpanData {
+
+    private final Attributes attributes;
+
+    GuardedSpanData(SpanData delegate, Attributes attributes) {
+      super(delegate);
+      this.attributes = attributes;
+    }
+
+    @Override
+    public Attributes getAttributes() {
+      return attributes;
+    }
+  }
+}
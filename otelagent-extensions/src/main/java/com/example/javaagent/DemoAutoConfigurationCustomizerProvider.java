@@ -25,15 +25,30 @@
  public class DemoAutoConfigurationCustomizerProvider
      implements AutoConfigurationCustomizerProvider {
  
+   private final TailSamplingConfiguration tailSampling = new TailSamplingConfiguration();
+ 
    @Override
    public void customize(AutoConfigurationCustomizer autoConfiguration) {
      autoConfiguration
-         .addPropertiesSupplier(this::getDefaultProperties);
+         .addPropertiesSupplier(this::getDefaultProperties)
+         // the spans dropped by the sampler are recorded, for the span metrics
+         .addSamplerCustomizer(SpanMetricsConfiguration::recordDroppedSpans)
+         // exporters are customized before the tracer provider, in order: the disk buffer keeps
+         // the guarded spans, the tail sampling captures the guarded and buffered exporter
+         .addSpanExporterCustomizer(DiskBufferConfiguration::wrapSpanExporter)
+         .addSpanExporterCustomizer(AttributeGuardConfiguration::wrapExporter)
+         .addSpanExporterCustomizer(tailSampling::captureExporter)
+         .addMetricExporterCustomizer(DiskBufferConfiguration::wrapMetricExporter)
+         .addMeterProviderCustomizer(SpanMetricsConfiguration::addView)
+         .addTracerProviderCustomizer(SpanMetricsConfiguration::addProcessor)
+         .addTracerProviderCustomizer(tailSampling::addProcessor);
    }
  
    private Map<String, String> getDefaultProperties() {
      Map<String, String> properties = new HashMap<>();
      properties.put("otel.traces.sampler", "com.jug.noschedule");
+     // bounds all the attribute values, AttributeGuardConfiguration sets tighter limits by key
+     properties.put("otel.attribute.value.length.limit", "4096");
      return properties;
    }
  }
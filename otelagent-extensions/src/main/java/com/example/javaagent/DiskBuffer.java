@@ -0,0 +1,271 @@
+/*
+ * Copyright The OpenTelemetry Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.example.javaagent;
+
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.metrics.Meter;
+import io.opentelemetry.exporter.internal.marshal.Marshaler;
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Keeps the batches of one signal on the local disk while the collector is unavailable, and replays
+ * them in order once it is back.
+ *
+ * <p>Each batch is exported as usual, backlog or not. When its export fails, it is serialized as
+ * an OTLP request into a {@link SegmentedLog}. A background thread replays the log alongside the
+ * live exports: it sends the records in order to the OTLP/HTTP endpoint ({@code
+ * <endpoint>/v1/<signal>}, protobuf encoding, with the headers and compression of the exporter),
+ * at most {@code replayBytesPerSecond}, and retries every second while the endpoint fails. Only the
+ * backlog is throttled, so it drains whatever the live traffic; the buffered batches reach the
+ * collector after the live ones exported meanwhile, with their original timestamps.
+ *
+ * <p>A 401 or 403 response is retried like a 5xx (credentials being rotated), the other 4xx
+ * responses (except 408 and 429) reject the batch for good.
+ *
+ * <p>Metrics, by signal: {@code jug.otel.buffer.backlog} (bytes waiting on the disk), {@code
+ * jug.otel.buffer.replay.lag} (age of the oldest waiting batch) and {@code jug.otel.buffer.batches}
+ * by outcome: {@code buffered}, {@code replayed}, {@code rejected} (4xx response, the batch is
+ * skipped), {@code evicted} (oldest batches deleted at the size cap) and {@code dropped} (batch
+ * larger than a segment, or disk error).
+ */
+public final class DiskBuffer {
+
+  private static final Logger logger = Logger.getLogger(DiskBuffer.class.getName());
+
+  private static final AttributeKey<String> SIGNAL = AttributeKey.stringKey("signal");
+  private static final AttributeKey<String> OUTCOME = AttributeKey.stringKey("outcome");
+  private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(10);
+
+  private final String signal;
+  private final SegmentedLog log;
+  private final URI endpoint;
+  private final Map<String, String> headers;
+  private final boolean gzip;
+  private final long replayBytesPerSecond;
+  private final HttpClient httpClient;
+  private final ScheduledExecutorService replayExecutor;
+  private final LazyMetrics metrics;
+  private final LongAdder buffered = new LongAdder();
+  private final LongAdder replayed = new LongAdder();
+  private final LongAdder rejected = new LongAdder();
+  private final LongAdder dropped = new LongAdder();
+
+  /**
+   * @param signal {@code traces} or {@code metrics}
+   * @param directory directory of the segments, one per signal
+   * @param maxBytes size cap of the segments, the oldest are deleted beyond
+   * @param segmentBytes size of a segment file, and maximum size of a batch
+   * @param endpoint OTLP/HTTP endpoint of the replay, without the {@code /v1/<signal>} path
+   * @param headers headers of the replay requests, the same as the exporter (authentication)
+   * @param gzip whether the replay requests are compressed
+   * @param meter the meter of the buffer metrics, called on the first export
+   */
+  public DiskBuffer(
+      String signal,
+      Path directory,
+      long maxBytes,
+      int segmentBytes,
+      String endpoint,
+      Map<String, String> headers,
+      boolean gzip,
+      long replayBytesPerSecond,
+      Supplier<Meter> meter)
+      throws IOException {
+    this.signal = signal;
+    this.log = new SegmentedLog(directory, maxBytes, segmentBytes);
+    this.endpoint = URI.create(endpoint + "/v1/" + signal);
+    this.headers = Map.copyOf(headers);
+    this.gzip = gzip;
+    this.replayBytesPerSecond = replayBytesPerSecond;
+    this.httpClient = HttpClient.newBuilder().connectTimeout(REQUEST_TIMEOUT).build();
+    this.metrics = new LazyMetrics(meter, this::registerMetrics);
+    this.replayExecutor =
+        Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+              Thread thread = new Thread(runnable, "jug-disk-buffer-" + signal);
+              thread.setDaemon(true);
+              return thread;
+            });
+    // the batches left by a previous run are replayed too
+    replayExecutor.scheduleWithFixedDelay(this::replay, 1, 1, TimeUnit.SECONDS);
+  }
+
+  /**
+   * Export a batch with {@code export}, and append it to the buffer if the export fails.
+   *
+   * @param marshaler serializes the batch, only called when it goes to the buffer
+   * @return succeeds once the batch is exported or buffered
+   */
+  CompletableResultCode export(
+      Supplier<CompletableResultCode> export, Supplier<Marshaler> marshaler) {
+    metrics.ensureRegistered();
+    CompletableResultCode result = new CompletableResultCode();
+    CompletableResultCode exported = export.get();
+    exported.whenComplete(
+        () -> {
+          if (exported.isSuccess() || append(marshaler.get())) {
+            result.succeed();
+          } else {
+            result.fail();
+          }
+        });
+    return result;
+  }
+
+  private boolean append(Marshaler marshaler) {
+    boolean appended;
+    try {
+      synchronized (log) {
+        // serialized in place, in the mapped segment
+        appended = log.append(marshaler.getBinarySerializedSize(), marshaler::writeBinaryTo);
+      }
+    } catch (IOException | RuntimeException e) {
+      logger.log(Level.WARNING, "Cannot buffer the " + signal + " on disk", e);
+      appended = false;
+    }
+    (appended ? buffered : dropped).increment();
+    return appended;
+  }
+
+  private void replay() {
+    try {
+      while (true) {
+        SegmentedLog.Record record;
+        synchronized (log) {
+          record = log.peek();
+        }
+        if (record == null) {
+          return;
+        }
+        int status = send(record.payload);
+        if (status >= 200 && status < 300) {
+          replayed.increment();
+        } else if (status >= 400 && status < 500 && !isRetryable(status)) {
+          // never accepted, retrying would block the next batches
+          logger.log(
+              Level.WARNING,
+              "Buffered {0} rejected with status {1}",
+              new Object[] {signal, status});
+          rejected.increment();
+        } else {
+          // retried on the next run
+          return;
+        }
+        synchronized (log) {
+          log.commit(record);
+        }
+        // bounded throughput of the backlog only: a collector coming back is not flooded by it
+        Thread.sleep(record.payload.length * 1000L / replayBytesPerSecond);
+      }
+    } catch (IOException e) {
+      // the endpoint is still unavailable, retried on the next run
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (RuntimeException e) {
+      logger.log(Level.WARNING, "Replay of the buffered " + signal + " failed", e);
+    }
+  }
+
+  // timeout, throttling, and authentication errors which may be fixed without changing the batch
+  private static boolean isRetryable(int status) {
+    return status == 401 || status == 403 || status == 408 || status == 429;
+  }
+
+  private int send(byte[] payload) throws IOException, InterruptedException {
+    HttpRequest.Builder request =
+        HttpRequest.newBuilder(endpoint)
+            .timeout(REQUEST_TIMEOUT)
+            .header("Content-Type", "application/x-protobuf");
+    headers.forEach(request::header);
+    if (gzip) {
+      request.header("Content-Encoding", "gzip");
+      payload = gzip(payload);
+    }
+    request.POST(HttpRequest.BodyPublishers.ofByteArray(payload));
+    return httpClient.send(request.build(), HttpResponse.BodyHandlers.discarding()).statusCode();
+  }
+
+  private static byte[] gzip(byte[] payload) throws IOException {
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream(payload.length / 4);
+    try (GZIPOutputStream output = new GZIPOutputStream(compressed)) {
+      output.write(payload);
+    }
+    return compressed.toByteArray();
+  }
+
+  private void registerMetrics(Meter meter) {
+    Attributes signalAttributes = Attributes.of(SIGNAL, signal);
+    meter
+        .gaugeBuilder("jug.otel.buffer.backlog")
+        .setDescription("Bytes of the batches waiting on the disk for the collector")
+        .setUnit("By")
+        .ofLongs()
+        .buildWithCallback(
+            measurement -> {
+              synchronized (log) {
+                measurement.record(log.backlogBytes(), signalAttributes);
+              }
+            });
+    meter
+        .gaugeBuilder("jug.otel.buffer.replay.lag")
+        .setDescription("Age of the oldest batch waiting on the disk, 0 when none")
+        .setUnit("ms")
+        .ofLongs()
+        .buildWithCallback(
+            measurement -> {
+              long oldest;
+              synchronized (log) {
+                oldest = log.oldestAppendMillis();
+              }
+              long lag = oldest < 0 ? 0 : Math.max(0, System.currentTimeMillis() - oldest);
+              measurement.record(lag, signalAttributes);
+            });
+    Attributes bufferedAttributes = Attributes.of(SIGNAL, signal, OUTCOME, "buffered");
+    Attributes replayedAttributes = Attributes.of(SIGNAL, signal, OUTCOME, "replayed");
+    Attributes rejectedAttributes = Attributes.of(SIGNAL, signal, OUTCOME, "rejected");
+    Attributes evictedAttributes = Attributes.of(SIGNAL, signal, OUTCOME, "evicted");
+    Attributes droppedAttributes = Attributes.of(SIGNAL, signal, OUTCOME, "dropped");
+    meter
+        .counterBuilder("jug.otel.buffer.batches")
+        .setDescription("Batches buffered on the disk, then replayed, rejected or evicted")
+        .buildWithCallback(
+            measurement -> {
+              measurement.record(buffered.sum(), bufferedAttributes);
+              measurement.record(replayed.sum(), replayedAttributes);
+              measurement.record(rejected.sum(), rejectedAttributes);
+              synchronized (log) {
+                measurement.record(log.evictedRecords(), evictedAttributes);
+              }
+              measurement.record(dropped.sum(), droppedAttributes);
+            });
+  }
+
+  /** Stop the replay and write the buffered batches to the disk, they are replayed on restart. */
+  void shutdown() {
+    replayExecutor.shutdownNow();
+    synchronized (log) {
+      log.force();
+    }
+  }
+}
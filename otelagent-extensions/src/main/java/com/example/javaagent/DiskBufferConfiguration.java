@@ -0,0 +1,120 @@
+/*
+ * Copyright The OpenTelemetry Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.example.javaagent;
+
+import io.opentelemetry.api.GlobalOpenTelemetry;
+import io.opentelemetry.sdk.autoconfigure.spi.ConfigProperties;
+import io.opentelemetry.sdk.metrics.export.MetricExporter;
+import io.opentelemetry.sdk.trace.export.SpanExporter;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Wraps the OTLP span and metric exporters with a {@link DiskBuffer} when {@code
+ * otel.jug.disk.buffer.enabled=true}.
+ *
+ * <p>The SDK calls the customizers once per configured exporter: the other exporters ({@code
+ * logging}...) are left as is, and a directory gets at most one buffer, since two logs on the same
+ * files would replay the records twice or cut them.
+ *
+ * <p>Settings:
+ *
+ * <ul>
+ *   <li>{@code otel.jug.disk.buffer.directory}: the segments, in a sub-directory by signal (default
+ *       {@code jug-otel-buffer} in the temporary directory)
+ *   <li>{@code otel.jug.disk.buffer.max.bytes}: size cap by signal (default 256MB)
+ *   <li>{@code otel.jug.disk.buffer.segment.bytes}: size of a segment file (default 8MB)
+ *   <li>{@code otel.jug.disk.buffer.endpoint}: OTLP/HTTP endpoint of the replay (default {@code
+ *       http://localhost:4318})
+ *   <li>{@code otel.jug.disk.buffer.replay.bytes.per.second}: replay throughput (default 1MB)
+ * </ul>
+ *
+ * <p>The replay requests have the headers and compression of the OTLP exporter: {@code
+ * otel.exporter.otlp.<signal>.headers} or {@code otel.exporter.otlp.headers}, and {@code
+ * otel.exporter.otlp.<signal>.compression} or {@code otel.exporter.otlp.compression}.
+ */
+final class DiskBufferConfiguration {
+
+  private static final Logger logger = Logger.getLogger(DiskBufferConfiguration.class.getName());
+
+  private static final String OTLP_PACKAGE = "io.opentelemetry.exporter.otlp.";
+
+  // the directories which already have a buffer
+  private static final Set<Path> bufferedDirectories = ConcurrentHashMap.newKeySet();
+
+  private DiskBufferConfiguration() {}
+
+  static SpanExporter wrapSpanExporter(SpanExporter exporter, ConfigProperties config) {
+    DiskBuffer buffer = isOtlp(exporter) ? createBuffer("traces", config) : null;
+    return buffer == null ? exporter : new DiskBufferedSpanExporter(exporter, buffer);
+  }
+
+  static MetricExporter wrapMetricExporter(MetricExporter exporter, ConfigProperties config) {
+    DiskBuffer buffer = isOtlp(exporter) ? createBuffer("metrics", config) : null;
+    return buffer == null ? exporter : new DiskBufferedMetricExporter(exporter, buffer);
+  }
+
+  // the replay sends OTLP requests, only the batches of an OTLP exporter are buffered
+  private static boolean isOtlp(Object exporter) {
+    return exporter.getClass().getName().startsWith(OTLP_PACKAGE);
+  }
+
+  private static DiskBuffer createBuffer(String signal, ConfigProperties config) {
+    if (!config.getBoolean("otel.jug.disk.buffer.enabled", false)) {
+      return null;
+    }
+    Path directory =
+        Paths.get(
+                config.getString(
+                    "otel.jug.disk.buffer.directory",
+                    Paths.get(System.getProperty("java.io.tmpdir"), "jug-otel-buffer").toString()))
+            .resolve(signal)
+            .toAbsolutePath()
+            .normalize();
+    if (!bufferedDirectories.add(directory)) {
+      logger.log(
+          Level.WARNING,
+          "Several OTLP {0} exporters, only the first one is buffered in {1}",
+          new Object[] {signal, directory});
+      return null;
+    }
+    try {
+      return new DiskBuffer(
+          signal,
+          directory,
+          config.getLong("otel.jug.disk.buffer.max.bytes", 256L * 1024 * 1024),
+          config.getInt("otel.jug.disk.buffer.segment.bytes", 8 * 1024 * 1024),
+          config.getString("otel.jug.disk.buffer.endpoint", "http://localhost:4318"),
+          headers(signal, config),
+          "gzip".equals(exporterSetting(signal, "compression", config)),
+          config.getLong("otel.jug.disk.buffer.replay.bytes.per.second", 1024 * 1024),
+          () -> GlobalOpenTelemetry.getMeter(LazyMetrics.INSTRUMENTATION_NAME));
+    } catch (IOException e) {
+      // the telemetry is still exported, without the buffer
+      logger.log(Level.WARNING, "Cannot create the disk buffer in " + directory, e);
+      bufferedDirectories.remove(directory);
+      return null;
+    }
+  }
+
+  private static Map<String, String> headers(String signal, ConfigProperties config) {
+    Map<String, String> headers = new HashMap<>(config.getMap("otel.exporter.otlp.headers"));
+    headers.putAll(config.getMap("otel.exporter.otlp." + signal + ".headers"));
+    return headers;
+  }
+
+  private static String exporterSetting(String signal, String name, ConfigProperties config) {
+    String value = config.getString("otel.exporter.otlp." + signal + "." + name);
+    return value != null ? value : config.getString("otel.exporter.otlp." + name);
+  }
+}
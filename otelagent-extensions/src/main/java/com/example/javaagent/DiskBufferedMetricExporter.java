@@ -0,0 +1,48 @@
+/*
+ * Copyright The OpenTelemetry Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.example.javaagent;
+
+import io.opentelemetry.exporter.internal.otlp.metrics.MetricsRequestMarshaler;
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.metrics.InstrumentType;
+import io.opentelemetry.sdk.metrics.data.AggregationTemporality;
+import io.opentelemetry.sdk.metrics.data.MetricData;
+import io.opentelemetry.sdk.metrics.export.MetricExporter;
+import java.util.Collection;
+
+/** Keeps the metrics in a {@link DiskBuffer} when their export fails. */
+public class DiskBufferedMetricExporter implements MetricExporter {
+
+  private final MetricExporter delegate;
+  private final DiskBuffer buffer;
+
+  public DiskBufferedMetricExporter(MetricExporter delegate, DiskBuffer buffer) {
+    this.delegate = delegate;
+    this.buffer = buffer;
+  }
+
+  @Override
+  public AggregationTemporality getAggregationTemporality(InstrumentType instrumentType) {
+    return delegate.getAggregationTemporality(instrumentType);
+  }
+
+  @Override
+  public CompletableResultCode export(Collection<MetricData> metrics) {
+    return buffer.export(
+        () -> delegate.export(metrics), () -> MetricsRequestMarshaler.create(metrics));
+  }
+
+  @Override
+  public CompletableResultCode flush() {
+    return delegate.flush();
+  }
+
+  @Override
+  public CompletableResultCode shutdown() {
+    buffer.shutdown();
+    return delegate.shutdown();
+  }
+}
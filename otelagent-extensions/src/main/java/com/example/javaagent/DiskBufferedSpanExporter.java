@@ -0,0 +1,40 @@
+/*
+ * Copyright The OpenTelemetry Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.example.javaagent;
+
+import io.opentelemetry.exporter.internal.otlp.traces.TraceRequestMarshaler;
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.opentelemetry.sdk.trace.export.SpanExporter;
+import java.util.Collection;
+
+/** Keeps the spans in a {@link DiskBuffer} when their export fails. */
+public class DiskBufferedSpanExporter implements SpanExporter {
+
+  private final SpanExporter delegate;
+  private final DiskBuffer buffer;
+
+  public DiskBufferedSpanExporter(SpanExporter delegate, DiskBuffer buffer) {
+    this.delegate = delegate;
+    this.buffer = buffer;
+  }
+
+  @Override
+  public CompletableResultCode export(Collection<SpanData> spans) {
+    return buffer.export(() -> delegate.export(spans), () -> TraceRequestMarshaler.create(spans));
+  }
+
+  @Override
+  public CompletableResultCode flush() {
+    return delegate.flush();
+  }
+
+  @Override
+  public CompletableResultCode shutdown() {
+    buffer.shutdown();
+    return delegate.shutdown();
+  }
+}
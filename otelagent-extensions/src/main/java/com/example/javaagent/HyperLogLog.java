@@ -0,0 +1,63 @@
+/*
+ * Copyright The OpenTelemetry Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.example.javaagent;
+
+/**
+ * Estimates the number of distinct values in a fixed memory, whatever the number of values.
+ *
+ * <p>HyperLogLog with 2^12 registers of one byte: 4kB per sketch, with a standard error of about
+ * 1.6%. The values are added by their 64 bits hash, see {@link #hash(String)}.
+ */
+final class HyperLogLog {
+
+  private static final int PRECISION = 12;
+  private static final int REGISTERS = 1 << PRECISION;
+  private static final double ALPHA = 0.7213 / (1 + 1.079 / REGISTERS);
+
+  private final byte[] registers = new byte[REGISTERS];
+
+  synchronized void add(long hash) {
+    int index = (int) (hash >>> (64 - PRECISION));
+    // the guard bit bounds the rank when the remaining bits are all 0
+    long remaining = (hash << PRECISION) | (1L << (PRECISION - 1));
+    byte rank = (byte) (Long.numberOfLeadingZeros(remaining) + 1);
+    if (rank > registers[index]) {
+      registers[index] = rank;
+    }
+  }
+
+  synchronized long estimate() {
+    double sum = 0;
+    int zeros = 0;
+    for (byte register : registers) {
+      sum += 1.0 / (1L << register);
+      if (register == 0) {
+        zeros++;
+      }
+    }
+    double estimate = ALPHA * REGISTERS * REGISTERS / sum;
+    if (estimate <= 2.5 * REGISTERS && zeros > 0) {
+      // small cardinalities: linear counting is more accurate
+      estimate = REGISTERS * Math.log((double) REGISTERS / zeros);
+    }
+    return Math.round(estimate);
+  }
+
+  /** FNV-1a over the chars, then the murmur3 finalizer to spread the bits. */
+  static long hash(String value) {
+    long hash = 0xcbf29ce484222325L;
+    for (int i = 0; i < value.length(); i++) {
+      hash ^= value.charAt(i);
+      hash *= 0x100000001b3L;
+    }
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb9fe1a85ec53L;
+    hash ^= hash >>> 33;
+    return hash;
+  }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright The OpenTelemetry Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.example.javaagent;
+
+import io.opentelemetry.api.GlobalOpenTelemetry;
+import io.opentelemetry.api.metrics.Meter;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Registers the metrics of a component of this extension on first use.
+ *
+ * <p>The components are created while the agent builds the SDK, before {@link GlobalOpenTelemetry}
+ * is set: getting a meter at this time would set a no-op implementation and break the agent. The
+ * metrics are registered on the first span or batch instead, once the SDK is ready.
+ *
+ * <p>Outside of the agent, the meter comes from the provided supplier, called at the same time.
+ *
+ * <p>The threads arriving during the registration wait for it, so the synchronous instruments it
+ * creates are set once {@link #ensureRegistered()} returns.
+ */
+final class LazyMetrics {
+
+  static final String INSTRUMENTATION_NAME = "com.jug.otelagent-extensions";
+
+  private volatile boolean registered;
+  private final Supplier<Meter> meter;
+  private final Consumer<Meter> registration;
+
+  LazyMetrics(Consumer<Meter> registration) {
+    this(() -> GlobalOpenTelemetry.getMeter(INSTRUMENTATION_NAME), registration);
+  }
+
+  LazyMetrics(Supplier<Meter> meter, Consumer<Meter> registration) {
+    this.meter = meter;
+    this.registration = registration;
+  }
+
+  void ensureRegistered() {
+    if (!registered) {
+      synchronized (this) {
+        if (!registered) {
+          registration.accept(meter.get());
+          registered = true;
+        }
+      }
+    }
+  }
+}
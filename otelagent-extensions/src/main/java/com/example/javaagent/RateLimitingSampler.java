@@ -0,0 +1,185 @@
+/*
+ * Copyright The OpenTelemetry Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.example.javaagent;
+
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanContext;
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.sdk.trace.data.LinkData;
+import io.opentelemetry.sdk.trace.samplers.SamplingDecision;
+import io.opentelemetry.sdk.trace.samplers.Sampler;
+import io.opentelemetry.sdk.trace.samplers.SamplingResult;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A sampler keeping at most a number of spans per second for each span name.
+ *
+ * <p>The spans with a local parent follow the decision of their parent, so the traces stay
+ * complete. The other spans (root spans, or spans with a remote parent such as the server spans of
+ * java-worker) are limited per span name:
+ *
+ * <ul>
+ *   <li>the rate of spans is measured every second, and a span is kept with the probability {@code
+ *       budget / measured rate}, so the probability adapts to the throughput
+ *   <li>a token bucket then enforces the budget during bursts, before the probability adapts
+ * </ul>
+ *
+ * <p>The kept spans have the {@code jug.sampling.probability} attribute: the share of the spans of
+ * their name kept during the previous second, after both the probability and the token bucket. A
+ * kept span stands for {@code 1 / jug.sampling.probability} spans, an estimate that lags one second
+ * behind a change of throughput. Nothing is locked on the span start path, the token bucket and the
+ * rate measure are atomic counters.
+ *
+ * @see RateLimitingSamplerProvider
+ */
+public class RateLimitingSampler implements Sampler {
+
+  static final AttributeKey<Double> SAMPLING_PROBABILITY =
+      AttributeKey.doubleKey("jug.sampling.probability");
+
+  private static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  private final double spansPerSecond;
+  private final int maxSpanNames;
+  private final ConcurrentMap<String, Budget> budgets = new ConcurrentHashMap<>();
+  // shared by the span names above maxSpanNames, to bound the memory
+  private final Budget overflowBudget;
+
+  /**
+   * @param spansPerSecond budget of each span name, positive
+   * @param maxSpanNames number of span names with their own budget, the next ones share one
+   */
+  public RateLimitingSampler(double spansPerSecond, int maxSpanNames) {
+    if (!(spansPerSecond > 0)) {
+      throw new IllegalArgumentException("spansPerSecond must be positive: " + spansPerSecond);
+    }
+    this.spansPerSecond = spansPerSecond;
+    this.maxSpanNames = maxSpanNames;
+    this.overflowBudget = new Budget(spansPerSecond, System.nanoTime());
+  }
+
+  @Override
+  public SamplingResult shouldSample(
+      Context parentContext,
+      String traceId,
+      String name,
+      SpanKind spanKind,
+      Attributes attributes,
+      List<LinkData> parentLinks) {
+
+    SpanContext parentSpanContext = Span.fromContext(parentContext).getSpanContext();
+    if (parentSpanContext.isValid() && !parentSpanContext.isRemote()) {
+      return parentSpanContext.isSampled()
+          ? SamplingResult.recordAndSample()
+          : SamplingResult.drop();
+    }
+    return budgetFor(name).sample(System.nanoTime());
+  }
+
+  private Budget budgetFor(String name) {
+    Budget budget = budgets.get(name);
+    if (budget != null) {
+      return budget;
+    }
+    if (budgets.size() >= maxSpanNames) {
+      return overflowBudget;
+    }
+    return budgets.computeIfAbsent(name, k -> new Budget(spansPerSecond, System.nanoTime()));
+  }
+
+  @Override
+  public String getDescription() {
+    return "RateLimitingSampler{spansPerSecond=" + spansPerSecond + "}";
+  }
+
+  /** The budget of one span name: adaptive probability, then token bucket. */
+  private static final class Budget {
+    private final double spansPerSecond;
+    // minimum time between two spans, and burst tolerance of the token bucket: one second, or one
+    // interval below one span per second, else no span would ever fit
+    private final long intervalNanos;
+    private final long burstNanos;
+    // token bucket as a "theoretical arrival time": a span is allowed if it is not too far ahead
+    private final AtomicLong theoreticalArrival;
+    private final LongAdder windowCount = new LongAdder();
+    private final LongAdder windowKept = new LongAdder();
+    private final AtomicLong windowStart;
+    private volatile double probability = 1.0;
+    // share of the spans kept during the previous window, recorded on the kept spans
+    private volatile double keptRatio = 1.0;
+    private volatile SamplingResult sampledResult = sampledResult(1.0);
+
+    Budget(double spansPerSecond, long now) {
+      this.spansPerSecond = spansPerSecond;
+      this.intervalNanos = (long) (WINDOW_NANOS / spansPerSecond);
+      this.burstNanos = Math.max(WINDOW_NANOS, intervalNanos);
+      this.theoreticalArrival = new AtomicLong(now);
+      this.windowStart = new AtomicLong(now);
+    }
+
+    SamplingResult sample(long now) {
+      windowCount.increment();
+      adaptProbability(now);
+      double currentProbability = probability;
+      if (currentProbability < 1.0
+          && ThreadLocalRandom.current().nextDouble() >= currentProbability) {
+        return SamplingResult.drop();
+      }
+      if (!tryAcquire(now)) {
+        return SamplingResult.drop();
+      }
+      windowKept.increment();
+      return sampledResult;
+    }
+
+    private void adaptProbability(long now) {
+      long start = windowStart.get();
+      long elapsed = now - start;
+      // only the thread winning the compare-and-set computes the new probability
+      if (elapsed >= WINDOW_NANOS && windowStart.compareAndSet(start, now)) {
+        long seen = windowCount.sumThenReset();
+        long kept = windowKept.sumThenReset();
+        double rate = seen * (double) WINDOW_NANOS / elapsed;
+        double target = rate <= spansPerSecond ? 1.0 : spansPerSecond / rate;
+        // smooth the changes of throughput
+        probability = Math.min(1.0, (probability + target) / 2);
+        // the measured keep ratio, never 0 so that a kept span can be extrapolated
+        double keepProbability = seen == 0 ? 1.0 : Math.min(1.0, Math.max(kept, 1) / (double) seen);
+        if (keepProbability != keptRatio) {
+          keptRatio = keepProbability;
+          sampledResult = sampledResult(keepProbability);
+        }
+      }
+    }
+
+    private boolean tryAcquire(long now) {
+      while (true) {
+        long current = theoreticalArrival.get();
+        long next = Math.max(current, now) + intervalNanos;
+        if (next - now > burstNanos) {
+          return false;
+        }
+        if (theoreticalArrival.compareAndSet(current, next)) {
+          return true;
+        }
+      }
+    }
+
+    private static SamplingResult sampledResult(double probability) {
+      return SamplingResult.create(
+          SamplingDecision.RECORD_AND_SAMPLE, Attributes.of(SAMPLING_PROBABILITY, probability));
+    }
+  }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright The OpenTelemetry Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.example.javaagent;
+
+import com.google.auto.service.AutoService;
+import io.opentelemetry.sdk.autoconfigure.spi.ConfigProperties;
+import io.opentelemetry.sdk.autoconfigure.spi.traces.ConfigurableSamplerProvider;
+import io.opentelemetry.sdk.trace.samplers.Sampler;
+
+/**
+ * Registers the {@link RateLimitingSampler} with {@code otel.traces.sampler=com.jug.ratelimited},
+ * the budget is read from {@code otel.jug.sampler.spans.per.second} (default 100) for at most
+ * {@code otel.jug.sampler.max.span.names} span names (default 1000). A budget which is not positive
+ * fails the configuration: use {@code always_off} to keep no span.
+ */
+@AutoService(ConfigurableSamplerProvider.class)
+public class RateLimitingSamplerProvider implements ConfigurableSamplerProvider {
+
+  @Override
+  public Sampler createSampler(ConfigProperties config) {
+    double spansPerSecond = config.getDouble("otel.jug.sampler.spans.per.second", 100);
+    if (!(spansPerSecond > 0)) {
+      throw new IllegalArgumentException(
+          "otel.jug.sampler.spans.per.second must be positive: " + spansPerSecond);
+    }
+    return new RateLimitingSampler(
+        spansPerSecond, config.getInt("otel.jug.sampler.max.span.names", 1000));
+  }
+
+  @Override
+  public String getName() {
+    return "com.jug.ratelimited";
+  }
+}
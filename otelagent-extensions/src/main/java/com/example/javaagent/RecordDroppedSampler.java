@@ -0,0 +1,51 @@
+/*
+ * Copyright The OpenTelemetry Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.example.javaagent;
+
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.sdk.trace.data.LinkData;
+import io.opentelemetry.sdk.trace.samplers.Sampler;
+import io.opentelemetry.sdk.trace.samplers.SamplingDecision;
+import io.opentelemetry.sdk.trace.samplers.SamplingResult;
+import java.util.List;
+
+/**
+ * Records the spans dropped by the wrapped sampler, without sampling them: they end in the span
+ * processors, for the {@link SpanMetricsProcessor}, and are not exported.
+ *
+ * <p>The sampled flag stays the same, so the downstream services take the same decision.
+ */
+final class RecordDroppedSampler implements Sampler {
+
+  private static final SamplingResult RECORD_ONLY =
+      SamplingResult.create(SamplingDecision.RECORD_ONLY);
+
+  private final Sampler delegate;
+
+  RecordDroppedSampler(Sampler delegate) {
+    this.delegate = delegate;
+  }
+
+  @Override
+  public SamplingResult shouldSample(
+      Context parentContext,
+      String traceId,
+      String name,
+      SpanKind spanKind,
+      Attributes attributes,
+      List<LinkData> parentLinks) {
+    SamplingResult result =
+        delegate.shouldSample(parentContext, traceId, name, spanKind, attributes, parentLinks);
+    return result.getDecision() == SamplingDecision.DROP ? RECORD_ONLY : result;
+  }
+
+  @Override
+  public String getDescription() {
+    return "RecordDropped{" + delegate.getDescription() + "}";
+  }
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright The OpenTelemetry Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.example.javaagent;
+
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanContext;
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.sdk.trace.data.LinkData;
+import io.opentelemetry.sdk.trace.samplers.Sampler;
+import io.opentelemetry.sdk.trace.samplers.SamplingResult;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * A sampler applying the first matching rule of a list, each rule keeping a ratio of the spans.
+ *
+ * <p>A rule is a list of {@code field=value} separated by {@code ;}, for example {@code
+ * name=ScheduledTasks.executeSql;kind=INTERNAL;ratio=0}. Fields:
+ *
+ * <ul>
+ *   <li>{@code name}, {@code prefix} or {@code regex}: the span name is equal to, starts with or
+ *       matches the value (no field: any span name)
+ *   <li>{@code kind}: the span kind ({@code INTERNAL}, {@code SERVER}, ...)
+ *   <li>{@code attr.<key>}: the string attribute {@code <key>} at span start is equal to the value
+ *   <li>{@code ratio}: the ratio of spans to keep, based on the trace id, 0 drops all the spans
+ *   <li>{@code parent}: {@code respect} (default) applies the ratio to the spans without parent,
+ *       the others follow the decision of their parent (local or remote) so the traces stay
+ *       complete; {@code ignore} applies the ratio to all the matching spans
+ * </ul>
+ *
+ * <p>The rules are compiled once into a hash map for the exact names, a prefix trie and a list of
+ * patterns. The rules which can match a span name are then cached per span name, so the cost per
+ * span does not depend on the number of rules. When no rule matches, the spans are dropped if their
+ * parent has not been sampled, and kept otherwise (as in {@link DemoSampler}).
+ *
+ * @see RuleBasedSamplerProvider
+ */
+public class RuleBasedSampler implements Sampler {
+
+  // bound of the per span name cache, span names should have a low cardinality
+  private static final int MAX_CACHED_NAMES = 10_000;
+  private static final Rule[] NO_RULES = new Rule[0];
+
+  private final List<Rule> rules;
+  private final Map<String, List<Rule>> exactNameRules = new HashMap<>();
+  private final PrefixTrie prefixRules = new PrefixTrie();
+  private final List<Rule> regexRules = new ArrayList<>();
+  private final List<Rule> anyNameRules = new ArrayList<>();
+  private final Map<String, Rule[]> rulesByName = new ConcurrentHashMap<>();
+
+  public RuleBasedSampler(List<String> ruleSpecs) {
+    List<Rule> parsed = new ArrayList<>();
+    for (String spec : ruleSpecs) {
+      Rule rule = Rule.parse(spec, parsed.size());
+      parsed.add(rule);
+      switch (rule.nameMatch) {
+        case EXACT:
+          exactNameRules.computeIfAbsent(rule.nameValue, k -> new ArrayList<>()).add(rule);
+          break;
+        case PREFIX:
+          prefixRules.add(rule.nameValue, rule);
+          break;
+        case REGEX:
+          regexRules.add(rule);
+          break;
+        default:
+          anyNameRules.add(rule);
+      }
+    }
+    this.rules = Collections.unmodifiableList(parsed);
+  }
+
+  @Override
+  public SamplingResult shouldSample(
+      Context parentContext,
+      String traceId,
+      String name,
+      SpanKind spanKind,
+      Attributes attributes,
+      List<LinkData> parentLinks) {
+
+    for (Rule rule : rulesFor(name)) {
+      if (rule.matches(spanKind, attributes)) {
+        return rule.sampler.shouldSample(
+            parentContext, traceId, name, spanKind, attributes, parentLinks);
+      }
+    }
+
+    // drop this span if parent hasn't been sampled
+    SpanContext parentSpanContext = Span.fromContext(parentContext).getSpanContext();
+    if (parentSpanContext.isValid() && !parentSpanContext.isSampled()) {
+      return SamplingResult.drop();
+    }
+
+    return SamplingResult.recordAndSample();
+  }
+
+  private Rule[] rulesFor(String name) {
+    Rule[] cached = rulesByName.get(name);
+    if (cached != null) {
+      return cached;
+    }
+    Rule[] candidates = collectRules(name);
+    if (rulesByName.size() < MAX_CACHED_NAMES) {
+      rulesByName.putIfAbsent(name, candidates);
+    }
+    return candidates;
+  }
+
+  /** Return the rules whose span name condition matches, in declaration order. */
+  private Rule[] collectRules(String name) {
+    List<Rule> candidates = new ArrayList<>(exactNameRules.getOrDefault(name, List.of()));
+    prefixRules.collect(name, candidates);
+    for (Rule rule : regexRules) {
+      if (rule.namePattern.matcher(name).matches()) {
+        candidates.add(rule);
+      }
+    }
+    candidates.addAll(anyNameRules);
+    if (candidates.isEmpty()) {
+      return NO_RULES;
+    }
+    candidates.sort((a, b) -> Integer.compare(a.order, b.order));
+    return candidates.toArray(NO_RULES);
+  }
+
+  @Override
+  public String getDescription() {
+    return "RuleBasedSampler{rules=" + rules.size() + "}";
+  }
+
+  private enum NameMatch {
+    ANY,
+    EXACT,
+    PREFIX,
+    REGEX
+  }
+
+  private static final class Rule {
+    private final int order;
+    private NameMatch nameMatch = NameMatch.ANY;
+    private String nameValue;
+    private Pattern namePattern;
+    private SpanKind kind;
+    private final List<AttributeKey<String>> attributeKeys = new ArrayList<>();
+    private final List<String> attributeValues = new ArrayList<>();
+    private double ratio = Double.NaN;
+    private boolean ignoreParent;
+    private Sampler sampler;
+
+    private Rule(int order) {
+      this.order = order;
+    }
+
+    static Rule parse(String spec, int order) {
+      Rule rule = new Rule(order);
+      for (String field : spec.split(";")) {
+        int separator = field.indexOf('=');
+        if (separator <= 0) {
+          throw new IllegalArgumentException("Invalid sampling rule field '" + field + "' in " + spec);
+        }
+        String key = field.substring(0, separator).trim();
+        String value = field.substring(separator + 1).trim();
+        if (key.equals("name")) {
+          rule.nameMatch = NameMatch.EXACT;
+          rule.nameValue = value;
+        } else if (key.equals("prefix")) {
+          rule.nameMatch = NameMatch.PREFIX;
+          rule.nameValue = value;
+        } else if (key.equals("regex")) {
+          rule.nameMatch = NameMatch.REGEX;
+          rule.namePattern = Pattern.compile(value);
+        } else if (key.equals("kind")) {
+          rule.kind = SpanKind.valueOf(value.toUpperCase(Locale.ROOT));
+        } else if (key.startsWith("attr.")) {
+          rule.attributeKeys.add(AttributeKey.stringKey(key.substring("attr.".length())));
+          rule.attributeValues.add(value);
+        } else if (key.equals("ratio")) {
+          rule.ratio = Double.parseDouble(value);
+        } else if (key.equals("parent")) {
+          rule.ignoreParent = parseParent(value, spec);
+        } else {
+          throw new IllegalArgumentException("Unknown sampling rule field '" + key + "' in " + spec);
+        }
+      }
+      if (Double.isNaN(rule.ratio)) {
+        throw new IllegalArgumentException("Missing ratio in sampling rule " + spec);
+      }
+      Sampler ratioSampler = createSampler(rule.ratio);
+      rule.sampler = rule.ignoreParent ? ratioSampler : Sampler.parentBased(ratioSampler);
+      return rule;
+    }
+
+    private static boolean parseParent(String value, String spec) {
+      if (value.equals("respect")) {
+        return false;
+      }
+      if (value.equals("ignore")) {
+        return true;
+      }
+      throw new IllegalArgumentException(
+          "Invalid parent '" + value + "' in sampling rule " + spec + ", respect or ignore");
+    }
+
+    private static Sampler createSampler(double ratio) {
+      if (ratio <= 0) {
+        return Sampler.alwaysOff();
+      }
+      if (ratio >= 1) {
+        return Sampler.alwaysOn();
+      }
+      return Sampler.traceIdRatioBased(ratio);
+    }
+
+    boolean matches(SpanKind spanKind, Attributes attributes) {
+      if (kind != null && kind != spanKind) {
+        return false;
+      }
+      for (int i = 0; i < attributeKeys.size(); i++) {
+        if (!attributeValues.get(i).equals(attributes.get(attributeKeys.get(i)))) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  /** A character trie returning the rules of all the prefixes of a span name. */
+  private static final class PrefixTrie {
+    private final Map<Character, PrefixTrie> children = new HashMap<>();
+    private final List<Rule> rules = new ArrayList<>();
+
+    void add(String prefix, Rule rule) {
+      PrefixTrie node = this;
+      for (int i = 0; i < prefix.length(); i++) {
+        node = node.children.computeIfAbsent(prefix.charAt(i), c -> new PrefixTrie());
+      }
+      node.rules.add(rule);
+    }
+
+    void collect(String name, List<Rule> result) {
+      PrefixTrie node = this;
+      result.addAll(node.rules);
+      for (int i = 0; i < name.length() && node != null; i++) {
+        node = node.children.get(name.charAt(i));
+        if (node != null) {
+          result.addAll(node.rules);
+        }
+      }
+    }
+  }
+}
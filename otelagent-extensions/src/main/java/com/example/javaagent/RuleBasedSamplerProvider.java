@@ -0,0 +1,60 @@
+/*
+ * Copyright The OpenTelemetry Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.example.javaagent;
+
+import com.google.auto.service.AutoService;
+import io.opentelemetry.sdk.autoconfigure.spi.ConfigProperties;
+import io.opentelemetry.sdk.autoconfigure.spi.traces.ConfigurableSamplerProvider;
+import io.opentelemetry.sdk.trace.samplers.Sampler;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Registers the {@link RuleBasedSampler} with {@code otel.traces.sampler=com.jug.rules}, the rules
+ * are read from the file {@code otel.jug.sampler.rules.file} (one rule per line, {@code #} starts a
+ * comment line) or from {@code otel.jug.sampler.rules} (comma separated).
+ *
+ * <p>In {@code otel.jug.sampler.rules}, only a comma followed by a rule field ({@code name=},
+ * {@code ratio=}, {@code attr.<key>=}...) starts a new rule, so a regex such as {@code [a-z]{1,3}}
+ * keeps its comma. The file has no separator at all.
+ */
+@AutoService(ConfigurableSamplerProvider.class)
+public class RuleBasedSamplerProvider implements ConfigurableSamplerProvider {
+
+  private static final Pattern RULE_SEPARATOR =
+      Pattern.compile(",(?=\\s*(?:name|prefix|regex|kind|ratio|parent|attr\\.[^=;,]+)=)");
+
+  @Override
+  public Sampler createSampler(ConfigProperties config) {
+    return new RuleBasedSampler(ruleSpecs(config));
+  }
+
+  private static List<String> ruleSpecs(ConfigProperties config) {
+    String file = config.getString("otel.jug.sampler.rules.file");
+    Stream<String> specs;
+    if (file != null) {
+      try {
+        specs = Files.readAllLines(Paths.get(file)).stream().filter(line -> !line.startsWith("#"));
+      } catch (IOException e) {
+        throw new IllegalArgumentException("Cannot read the sampling rules of " + file, e);
+      }
+    } else {
+      specs = Arrays.stream(RULE_SEPARATOR.split(config.getString("otel.jug.sampler.rules", "")));
+    }
+    return specs.map(String::trim).filter(spec -> !spec.isEmpty()).collect(Collectors.toList());
+  }
+
+  @Override
+  public String getName() {
+    return "com.jug.rules";
+  }
+}
@@ -0,0 +1,318 @@
+/*
+ * Copyright The OpenTelemetry Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.example.javaagent;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only log of records in memory mapped segment files, read in order from a persisted
+ * cursor.
+ *
+ * <p>Each segment is a file of {@code segmentBytes}, named by its sequence number, holding records
+ * of a 16 bytes header (length, CRC32 of the payload, append time in milliseconds) and a payload. A
+ * zero length ends the records of a segment: the mapped files are zero-filled, and the length of a
+ * record is written last, so a record torn by a crash is not read. The read position is kept in a
+ * mapped {@code cursor} file, so the records already read are not read again after a restart.
+ *
+ * <p>The log keeps at most {@code maxBytes}: when a new segment is needed, the oldest segments are
+ * deleted, with their unread records. A segment is deleted as soon as its records are all read.
+ *
+ * <p>The mapped pages are written back by the OS: the records survive a crash of the process, not
+ * a crash of the OS. Not thread-safe: {@link DiskBuffer} synchronizes the calls.
+ */
+final class SegmentedLog {
+
+  static final int HEADER_BYTES = 16;
+  private static final String SEGMENT_SUFFIX = ".seg";
+
+  private final Path directory;
+  private final int segmentBytes;
+  private final int maxSegments;
+  private final TreeMap<Long, Segment> segments = new TreeMap<>();
+  private final MappedByteBuffer cursor;
+  private long readSequence;
+  private int readOffset;
+  // validated length of the record at the read position, 0 until checked: its CRC is computed once
+  private int readLength;
+  private long backlogBytes;
+  private long evictedRecords;
+
+  /** Writes the payload of a record, for example {@code Marshaler::writeBinaryTo}. */
+  interface RecordWriter {
+    void writeTo(OutputStream output) throws IOException;
+  }
+
+  /** A record read from the log. */
+  static final class Record {
+
+    final byte[] payload;
+    final long appendMillis;
+    private final long sequence;
+    private final int offset;
+
+    Record(byte[] payload, long appendMillis, long sequence, int offset) {
+      this.payload = payload;
+      this.appendMillis = appendMillis;
+      this.sequence = sequence;
+      this.offset = offset;
+    }
+  }
+
+  SegmentedLog(Path directory, long maxBytes, int segmentBytes) throws IOException {
+    this.directory = directory;
+    this.segmentBytes = segmentBytes;
+    this.maxSegments = (int) Math.max(2, maxBytes / segmentBytes);
+    Files.createDirectories(directory);
+    try (Stream<Path> files = Files.list(directory)) {
+      List<Path> segmentFiles =
+          files
+              .filter(file -> file.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+              .collect(Collectors.toList());
+      for (Path file : segmentFiles) {
+        String name = file.getFileName().toString();
+        long sequence = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+        segments.put(sequence, new Segment(file, map(file, segmentBytes)));
+      }
+    }
+    cursor = map(directory.resolve("cursor"), Long.BYTES + Integer.BYTES);
+    readSequence = cursor.getLong(0);
+    readOffset = cursor.getInt(Long.BYTES);
+    if (segments.isEmpty()) {
+      addSegment(readSequence);
+    }
+    // segments already read but not deleted
+    while (segments.size() > 1 && segments.firstKey() < readSequence) {
+      delete(segments.pollFirstEntry().getValue());
+    }
+    if (readSequence != segments.firstKey()) {
+      // the segment of the cursor was evicted
+      moveReadPosition(segments.firstKey(), 0);
+    }
+    // the end of the records and the backlog, from the cursor
+    for (Map.Entry<Long, Segment> entry : segments.entrySet()) {
+      Segment segment = entry.getValue();
+      int offset = 0;
+      int length = recordLength(segment, 0);
+      while (length > 0) {
+        offset += HEADER_BYTES + length;
+        length = recordLength(segment, offset);
+      }
+      segment.writeOffset = offset;
+      if (entry.getKey() > readSequence) {
+        backlogBytes += offset;
+      } else if (entry.getKey() == readSequence) {
+        backlogBytes += Math.max(0, offset - readOffset);
+      }
+    }
+  }
+
+  /**
+   * Append a record of {@code length} bytes, the payload is written in place in the mapped segment.
+   *
+   * @return {@code false} if the record is larger than a segment
+   */
+  boolean append(int length, RecordWriter writer) throws IOException {
+    int recordBytes = HEADER_BYTES + length;
+    if (recordBytes > segmentBytes) {
+      return false;
+    }
+    Segment segment = segments.lastEntry().getValue();
+    if (segment.writeOffset + recordBytes > segmentBytes) {
+      segment = addSegment(segments.lastKey() + 1);
+    }
+    int offset = segment.writeOffset;
+    ByteBuffer payload = segment.buffer.duplicate();
+    payload.position(offset + HEADER_BYTES).limit(offset + recordBytes);
+    try {
+      writer.writeTo(new ByteBufferOutputStream(payload.slice()));
+    } catch (BufferOverflowException e) {
+      throw new IOException("The record is larger than its announced length " + length, e);
+    }
+    CRC32 crc = new CRC32();
+    payload.position(offset + HEADER_BYTES);
+    crc.update(payload);
+    segment.buffer.putLong(offset + 8, System.currentTimeMillis());
+    segment.buffer.putInt(offset + 4, (int) crc.getValue());
+    // the length last: the record exists once complete
+    segment.buffer.putInt(offset, length);
+    segment.writeOffset += recordBytes;
+    backlogBytes += recordBytes;
+    return true;
+  }
+
+  /** Return the oldest unread record, or {@code null} if all the records are read. */
+  Record peek() {
+    Segment segment = readSegment();
+    if (segment == null) {
+      return null;
+    }
+    byte[] payload = new byte[readLength];
+    segment.buffer.get(readOffset + HEADER_BYTES, payload);
+    return new Record(payload, segment.buffer.getLong(readOffset + 8), readSequence, readOffset);
+  }
+
+  /** Return the append time of the oldest unread record, or -1 if all the records are read. */
+  long oldestAppendMillis() {
+    Segment segment = readSegment();
+    return segment == null ? -1 : segment.buffer.getLong(readOffset + 8);
+  }
+
+  /** Mark a record returned by {@link #peek()} as read, unless it was evicted meanwhile. */
+  void commit(Record record) {
+    Segment segment = readSegment();
+    if (segment == null || record.sequence != readSequence || record.offset != readOffset) {
+      return;
+    }
+    int recordBytes = HEADER_BYTES + readLength;
+    moveReadPosition(readSequence, readOffset + recordBytes);
+    backlogBytes -= recordBytes;
+    cursor.putLong(0, readSequence);
+    cursor.putInt(Long.BYTES, readOffset);
+  }
+
+  long backlogBytes() {
+    return backlogBytes;
+  }
+
+  long evictedRecords() {
+    return evictedRecords;
+  }
+
+  /** Write the mapped pages to the disk. */
+  void force() {
+    segments.values().forEach(segment -> segment.buffer.force());
+    cursor.force();
+  }
+
+  // the segment of the next unread record, with readLength set, the read segments are deleted on
+  // the way
+  private Segment readSegment() {
+    while (true) {
+      Segment segment = segments.get(readSequence);
+      if (readLength == 0) {
+        // not cached when 0: a record may be appended at the read position later
+        readLength = recordLength(segment, readOffset);
+      }
+      if (readLength > 0) {
+        return segment;
+      }
+      if (readSequence == segments.lastKey()) {
+        return null;
+      }
+      delete(segments.remove(readSequence));
+      moveReadPosition(segments.firstKey(), 0);
+    }
+  }
+
+  private void moveReadPosition(long sequence, int offset) {
+    readSequence = sequence;
+    readOffset = offset;
+    readLength = 0;
+  }
+
+  private int recordLength(Segment segment, int offset) {
+    if (offset + HEADER_BYTES > segmentBytes) {
+      return 0;
+    }
+    int length = segment.buffer.getInt(offset);
+    if (length <= 0 || offset + HEADER_BYTES + length > segmentBytes) {
+      return 0;
+    }
+    ByteBuffer payload = segment.buffer.duplicate();
+    payload.position(offset + HEADER_BYTES).limit(offset + HEADER_BYTES + length);
+    CRC32 crc = new CRC32();
+    crc.update(payload);
+    // a torn record ends the segment
+    return (int) crc.getValue() == segment.buffer.getInt(offset + 4) ? length : 0;
+  }
+
+  private Segment addSegment(long sequence) throws IOException {
+    Path file = directory.resolve(String.format("%020d%s", sequence, SEGMENT_SUFFIX));
+    Segment segment = new Segment(file, map(file, segmentBytes));
+    segments.put(sequence, segment);
+    while (segments.size() > maxSegments) {
+      // oldest first eviction, with the unread records
+      long evictedSequence = segments.firstKey();
+      Segment evicted = segments.remove(evictedSequence);
+      int offset = evictedSequence == readSequence ? readOffset : 0;
+      for (int length = recordLength(evicted, offset); length > 0; ) {
+        backlogBytes -= HEADER_BYTES + length;
+        evictedRecords++;
+        offset += HEADER_BYTES + length;
+        length = recordLength(evicted, offset);
+      }
+      delete(evicted);
+      if (evictedSequence >= readSequence) {
+        moveReadPosition(segments.firstKey(), 0);
+      }
+    }
+    return segment;
+  }
+
+  private static void delete(Segment segment) {
+    // the mapping is released by the garbage collector, the file can be deleted before (not on
+    // windows, where the file is then deleted on a next start)
+    try {
+      Files.deleteIfExists(segment.file);
+    } catch (IOException e) {
+      // left on the disk, ignored
+    }
+  }
+
+  private static MappedByteBuffer map(Path file, int size) throws IOException {
+    try (FileChannel channel =
+        FileChannel.open(
+            file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      // the mapping extends the file with zeros, and stays valid once the channel is closed
+      return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+  }
+
+  private static final class Segment {
+
+    private final Path file;
+    private final MappedByteBuffer buffer;
+    private int writeOffset;
+
+    Segment(Path file, MappedByteBuffer buffer) {
+      this.file = file;
+      this.buffer = buffer;
+    }
+  }
+
+  private static final class ByteBufferOutputStream extends OutputStream {
+
+    private final ByteBuffer buffer;
+
+    ByteBufferOutputStream(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public void write(int b) {
+      buffer.put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) {
+      buffer.put(bytes, offset, length);
+    }
+  }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright The OpenTelemetry Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.example.javaagent;
+
+import io.opentelemetry.sdk.autoconfigure.spi.ConfigProperties;
+import io.opentelemetry.sdk.metrics.Aggregation;
+import io.opentelemetry.sdk.metrics.InstrumentSelector;
+import io.opentelemetry.sdk.metrics.SdkMeterProviderBuilder;
+import io.opentelemetry.sdk.metrics.View;
+import io.opentelemetry.sdk.trace.SdkTracerProviderBuilder;
+import io.opentelemetry.sdk.trace.samplers.Sampler;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Adds the {@link SpanMetricsProcessor} when {@code otel.jug.span.metrics.enabled=true}, makes the
+ * sampler record the spans it drops, so they are counted, and sets the buckets of the duration
+ * histogram with a view.
+ *
+ * <p>Settings:
+ *
+ * <ul>
+ *   <li>{@code otel.jug.span.metrics.buckets}: upper bounds of the duration buckets in milliseconds
+ *       (default 5,10,25,50,100,250,500,1000,2500,5000,10000)
+ *   <li>{@code otel.jug.span.metrics.max.series}: maximum number of series (default 1000)
+ * </ul>
+ *
+ * <p>The view also keeps only the span name, kind and status code attributes. The number of span
+ * names is capped by the processor: the SDK has no cardinality limit to configure in a view.
+ */
+final class SpanMetricsConfiguration {
+
+  private static final List<String> DEFAULT_BUCKETS =
+      Arrays.asList("5", "10", "25", "50", "100", "250", "500", "1000", "2500", "5000", "10000");
+
+  private SpanMetricsConfiguration() {}
+
+  static boolean isEnabled(ConfigProperties config) {
+    return config.getBoolean("otel.jug.span.metrics.enabled", false);
+  }
+
+  static Sampler recordDroppedSpans(Sampler sampler, ConfigProperties config) {
+    return isEnabled(config) ? new RecordDroppedSampler(sampler) : sampler;
+  }
+
+  static SdkTracerProviderBuilder addProcessor(
+      SdkTracerProviderBuilder builder, ConfigProperties config) {
+    if (!isEnabled(config)) {
+      return builder;
+    }
+    return builder.addSpanProcessor(
+        new SpanMetricsProcessor(config.getInt("otel.jug.span.metrics.max.series", 1000)));
+  }
+
+  static SdkMeterProviderBuilder addView(SdkMeterProviderBuilder builder, ConfigProperties config) {
+    if (!isEnabled(config)) {
+      return builder;
+    }
+    List<Double> buckets =
+        config.getList("otel.jug.span.metrics.buckets", DEFAULT_BUCKETS).stream()
+            .map(Double::valueOf)
+            .sorted()
+            .collect(Collectors.toList());
+    Set<String> keys =
+        new HashSet<>(
+            Arrays.asList(
+                SpanMetricsProcessor.SPAN_NAME.getKey(),
+                SpanMetricsProcessor.SPAN_KIND.getKey(),
+                SpanMetricsProcessor.STATUS_CODE.getKey()));
+    return builder.registerView(
+        InstrumentSelector.builder()
+            .setMeterName(LazyMetrics.INSTRUMENTATION_NAME)
+            .setName(SpanMetricsProcessor.DURATION_NAME)
+            .build(),
+        View.builder()
+            .setAggregation(Aggregation.explicitBucketHistogram(buckets))
+            .setAttributeFilter(keys::contains)
+            .build());
+  }
+}
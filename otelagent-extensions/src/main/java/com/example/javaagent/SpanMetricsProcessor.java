@@ -0,0 +1,147 @@
+/*
+ * Copyright The OpenTelemetry Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.example.javaagent;
+
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.metrics.DoubleHistogram;
+import io.opentelemetry.api.metrics.Meter;
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.trace.ReadWriteSpan;
+import io.opentelemetry.sdk.trace.ReadableSpan;
+import io.opentelemetry.sdk.trace.SpanProcessor;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.logging.Logger;
+
+/**
+ * Computes the rate, errors and duration (RED) metrics of the spans as they end, before any span is
+ * left out of the export, so the metrics stay exact whatever the trace sampling.
+ *
+ * <p>The durations are recorded in the {@code jug.span.duration} histogram (milliseconds), by span
+ * name, kind and status code: its count is the rate, the count with {@code status.code=ERROR} the
+ * errors. The bucket boundaries are set by a view, see {@link SpanMetricsConfiguration}. The
+ * service is the resource of the metrics, the same as the resource of the spans.
+ *
+ * <p>The attributes of a series are built once and cached by span name, kind and status code. The
+ * number of series is capped: beyond, the spans of new names are recorded under the {@code
+ * _overflow} span name. Recording a span still has a cost: the status of a span is only exposed
+ * by {@link ReadableSpan#toSpanData()} in this SDK version, which allocates a copy of the span, and
+ * the histogram looks up its bucket and its series in the SDK.
+ *
+ * <p>Only the recording spans end in a processor: the head sampler has to record the spans it does
+ * not sample, see {@link RecordDroppedSampler}.
+ *
+ * @see SpanMetricsConfiguration
+ */
+public class SpanMetricsProcessor implements SpanProcessor {
+
+  private static final Logger logger = Logger.getLogger(SpanMetricsProcessor.class.getName());
+
+  static final String OVERFLOW_NAME = "_overflow";
+  static final String DURATION_NAME = "jug.span.duration";
+
+  static final AttributeKey<String> SPAN_NAME = AttributeKey.stringKey("span.name");
+  static final AttributeKey<String> SPAN_KIND = AttributeKey.stringKey("span.kind");
+  static final AttributeKey<String> STATUS_CODE = AttributeKey.stringKey("status.code");
+  private static final double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+  private static final SpanKind[] KINDS = SpanKind.values();
+  private static final StatusCode[] STATUS_CODES = StatusCode.values();
+
+  private final int maxSeries;
+  private final AtomicInteger seriesCount = new AtomicInteger();
+  private final AtomicBoolean overflowLogged = new AtomicBoolean();
+  // attributes of the series by span name, then by kind and status code
+  private final ConcurrentHashMap<String, AtomicReferenceArray<Attributes>> seriesByName =
+      new ConcurrentHashMap<>();
+  private final LazyMetrics metrics = new LazyMetrics(this::registerMetrics);
+  private volatile DoubleHistogram duration;
+
+  /**
+   * @param maxSeries maximum number of series (span name, kind and status code)
+   */
+  public SpanMetricsProcessor(int maxSeries) {
+    this.maxSeries = maxSeries;
+  }
+
+  @Override
+  public void onStart(Context parentContext, ReadWriteSpan span) {}
+
+  @Override
+  public boolean isStartRequired() {
+    return false;
+  }
+
+  @Override
+  public void onEnd(ReadableSpan span) {
+    metrics.ensureRegistered();
+    StatusCode statusCode = span.toSpanData().getStatus().getStatusCode();
+    duration.record(
+        span.getLatencyNanos() / NANOS_PER_MILLI,
+        series(span.getName(), span.getKind(), statusCode, true));
+  }
+
+  @Override
+  public boolean isEndRequired() {
+    return true;
+  }
+
+  private Attributes series(String name, SpanKind kind, StatusCode statusCode, boolean capped) {
+    int index = kind.ordinal() * STATUS_CODES.length + statusCode.ordinal();
+    AtomicReferenceArray<Attributes> byKindAndStatus = seriesByName.get(name);
+    Attributes series = byKindAndStatus == null ? null : byKindAndStatus.get(index);
+    if (series != null) {
+      return series;
+    }
+    if (capped && seriesCount.incrementAndGet() > maxSeries) {
+      seriesCount.decrementAndGet();
+      if (overflowLogged.compareAndSet(false, true)) {
+        logger.warning(
+            "Span metrics limited to " + maxSeries + " series, the next ones are " + OVERFLOW_NAME);
+      }
+      return series(OVERFLOW_NAME, kind, statusCode, false);
+    }
+    if (byKindAndStatus == null) {
+      byKindAndStatus =
+          seriesByName.computeIfAbsent(
+              name, key -> new AtomicReferenceArray<>(KINDS.length * STATUS_CODES.length));
+    }
+    Attributes created =
+        Attributes.of(SPAN_NAME, name, SPAN_KIND, kind.name(), STATUS_CODE, statusCode.name());
+    if (byKindAndStatus.compareAndSet(index, null, created)) {
+      return created;
+    }
+    // created meanwhile by another thread
+    if (capped) {
+      seriesCount.decrementAndGet();
+    }
+    return byKindAndStatus.get(index);
+  }
+
+  private void registerMetrics(Meter meter) {
+    duration =
+        meter
+            .histogramBuilder(DURATION_NAME)
+            .setDescription("Duration of the ended spans, sampled or not")
+            .setUnit("ms")
+            .build();
+    meter
+        .upDownCounterBuilder("jug.span.metrics.series")
+        .setDescription("Number of series of the span metrics, capped")
+        .buildWithCallback(measurement -> measurement.record(seriesCount.get()));
+  }
+
+  @Override
+  public CompletableResultCode shutdown() {
+    return CompletableResultCode.ofSuccess();
+  }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright The OpenTelemetry Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.example.javaagent;
+
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.sdk.autoconfigure.spi.ConfigProperties;
+import io.opentelemetry.sdk.trace.SdkTracerProviderBuilder;
+import io.opentelemetry.sdk.trace.export.SpanExporter;
+import java.time.Duration;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+
+/**
+ * Adds the {@link TailSamplingSpanProcessor} when {@code otel.jug.tail.sampling.enabled=true}.
+ *
+ * <p>The configured exporters are handed over to the tail sampling processor, and the default batch
+ * processor gets a no-op exporter instead, so the spans are exported once, after the tail decision.
+ *
+ * <p>Settings:
+ *
+ * <ul>
+ *   <li>{@code otel.jug.tail.sampling.latency.threshold}: traces with a slower span are kept
+ *       (default 1s)
+ *   <li>{@code otel.jug.tail.sampling.ratio}: ratio of the other traces to keep (default 0.01)
+ *   <li>{@code otel.jug.tail.sampling.kept.kinds}: traces with a span of these kinds are kept
+ *       (default none)
+ *   <li>{@code otel.jug.tail.sampling.decision.wait}: maximum wait for the end of a trace (default
+ *       5s)
+ *   <li>{@code otel.jug.tail.sampling.max.spans}: maximum number of buffered spans (default 100000)
+ *   <li>{@code otel.jug.tail.sampling.max.decided.traces}: recent decisions applied to the spans
+ *       ending after the decision on their trace (default 100000)
+ *   <li>{@code otel.jug.tail.sampling.max.export.batch.size}: spans per export (default 512)
+ * </ul>
+ */
+final class TailSamplingConfiguration {
+
+  private final List<SpanExporter> exporters = new CopyOnWriteArrayList<>();
+
+  static boolean isEnabled(ConfigProperties config) {
+    return config.getBoolean("otel.jug.tail.sampling.enabled", false);
+  }
+
+  SpanExporter captureExporter(SpanExporter exporter, ConfigProperties config) {
+    if (!isEnabled(config)) {
+      return exporter;
+    }
+    exporters.add(exporter);
+    return SpanExporter.composite();
+  }
+
+  SdkTracerProviderBuilder addProcessor(SdkTracerProviderBuilder builder, ConfigProperties config) {
+    if (!isEnabled(config) || exporters.isEmpty()) {
+      return builder;
+    }
+    Set<SpanKind> keptKinds =
+        config.getList("otel.jug.tail.sampling.kept.kinds").stream()
+            .map(kind -> SpanKind.valueOf(kind.toUpperCase(Locale.ROOT)))
+            .collect(Collectors.toSet());
+    return builder.addSpanProcessor(
+        new TailSamplingSpanProcessor(
+            SpanExporter.composite(exporters),
+            config.getDuration("otel.jug.tail.sampling.latency.threshold", Duration.ofSeconds(1)),
+            config.getDouble("otel.jug.tail.sampling.ratio", 0.01),
+            keptKinds,
+            config.getDuration("otel.jug.tail.sampling.decision.wait", Duration.ofSeconds(5)),
+            config.getInt("otel.jug.tail.sampling.max.spans", 100_000),
+            config.getInt("otel.jug.tail.sampling.max.decided.traces", 100_000),
+            config.getInt("otel.jug.tail.sampling.max.export.batch.size", 512)));
+  }
+}
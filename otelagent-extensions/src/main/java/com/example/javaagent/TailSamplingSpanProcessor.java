@@ -0,0 +1,402 @@
+/*
+ * Copyright The OpenTelemetry Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.example.javaagent;
+
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.metrics.Meter;
+import io.opentelemetry.api.trace.SpanContext;
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.trace.ReadWriteSpan;
+import io.opentelemetry.sdk.trace.ReadableSpan;
+import io.opentelemetry.sdk.trace.SpanProcessor;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.opentelemetry.sdk.trace.export.SpanExporter;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps whole traces according to their content: the traces with an error, the slow traces, the
+ * traces with a span of some kinds, and a ratio of the others ("all error and slow traces, 1% of
+ * the rest").
+ *
+ * <p>The ended spans are buffered per trace id in striped maps, each stripe with its own lock. A
+ * trace is decided when its local root span ends, or after a maximum wait. The kept spans are
+ * exported in batches by a background thread. The number of buffered spans is capped: above the
+ * cap, the oldest traces of all the stripes are decided early with the spans received so far.
+ *
+ * <p>The decisions of the last {@code maxDecidedTraces} traces are kept, so a span ending after
+ * the decision on its trace (an asynchronous child ending after the root span, the rest of an
+ * evicted trace) follows that decision instead of starting a new buffer.
+ *
+ * <p>The head sampler must record the spans for them to reach this processor.
+ *
+ * @see TailSamplingConfiguration
+ */
+public class TailSamplingSpanProcessor implements SpanProcessor {
+
+  private static final Logger logger = Logger.getLogger(TailSamplingSpanProcessor.class.getName());
+
+  private static final int STRIPES = 16;
+  private static final AttributeKey<String> DECISION = AttributeKey.stringKey("decision");
+  private static final Attributes KEPT = Attributes.of(DECISION, "kept");
+  private static final Attributes DROPPED = Attributes.of(DECISION, "dropped");
+
+  private final SpanExporter exporter;
+  private final long latencyThresholdNanos;
+  private final long ratioUpperBound;
+  private final Set<SpanKind> keptKinds;
+  private final long decisionWaitNanos;
+  private final int maxBufferedSpans;
+  private final int maxExportBatchSize;
+
+  private final Stripe[] stripes = new Stripe[STRIPES];
+  private final AtomicInteger bufferedSpans = new AtomicInteger();
+  private final BlockingQueue<SpanData> exportQueue;
+  private final ScheduledExecutorService scheduler;
+
+  private final LongAdder keptTraces = new LongAdder();
+  private final LongAdder droppedTraces = new LongAdder();
+  private final LongAdder evictedTraces = new LongAdder();
+  private final LongAdder exportDroppedSpans = new LongAdder();
+  private final LongAdder lateKeptSpans = new LongAdder();
+  private final LongAdder lateDroppedSpans = new LongAdder();
+  private final LazyMetrics metrics = new LazyMetrics(this::registerMetrics);
+
+  /**
+   * @param latencyThreshold the traces with a span lasting at least this duration are kept
+   * @param ratio ratio of the other traces to keep, based on the trace id
+   * @param keptKinds the traces with a span of one of these kinds are kept
+   * @param decisionWait maximum time to wait for the local root span of a trace
+   * @param maxBufferedSpans maximum number of spans waiting for the decision on their trace
+   * @param maxDecidedTraces number of recent decisions kept for the spans ending after them
+   * @param maxExportBatchSize maximum number of spans per export
+   */
+  public TailSamplingSpanProcessor(
+      SpanExporter exporter,
+      Duration latencyThreshold,
+      double ratio,
+      Set<SpanKind> keptKinds,
+      Duration decisionWait,
+      int maxBufferedSpans,
+      int maxDecidedTraces,
+      int maxExportBatchSize) {
+    this.exporter = exporter;
+    this.latencyThresholdNanos = latencyThreshold.toNanos();
+    this.ratioUpperBound = (long) (Math.max(0, Math.min(1, ratio)) * Long.MAX_VALUE);
+    this.keptKinds = keptKinds.isEmpty() ? EnumSet.noneOf(SpanKind.class) : EnumSet.copyOf(keptKinds);
+    this.decisionWaitNanos = decisionWait.toNanos();
+    this.maxBufferedSpans = maxBufferedSpans;
+    this.maxExportBatchSize = maxExportBatchSize;
+    this.exportQueue = new ArrayBlockingQueue<>(maxBufferedSpans);
+    for (int i = 0; i < STRIPES; i++) {
+      stripes[i] = new Stripe(Math.max(1, maxDecidedTraces / STRIPES));
+    }
+    this.scheduler =
+        Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+              Thread thread = new Thread(runnable, "jug-tail-sampling");
+              thread.setDaemon(true);
+              return thread;
+            });
+    scheduler.scheduleWithFixedDelay(this::decideTimedOutTraces, 1, 1, TimeUnit.SECONDS);
+    scheduler.scheduleWithFixedDelay(this::exportKeptSpans, 200, 200, TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public void onStart(Context parentContext, ReadWriteSpan span) {}
+
+  @Override
+  public boolean isStartRequired() {
+    return false;
+  }
+
+  @Override
+  public void onEnd(ReadableSpan span) {
+    metrics.ensureRegistered();
+    if (!span.getSpanContext().isSampled()) {
+      // recorded for the span metrics only (RecordDroppedSampler), never exported
+      return;
+    }
+    SpanData data = span.toSpanData();
+    String traceId = data.getTraceId();
+    SpanContext parent = span.getParentSpanContext();
+    boolean localRoot = !parent.isValid() || parent.isRemote();
+
+    TraceBuffer completed = null;
+    boolean keepCompleted = false;
+    Boolean decided;
+    Stripe stripe = stripes[(traceId.hashCode() & 0x7fffffff) % STRIPES];
+    synchronized (stripe) {
+      decided = stripe.decisions.get(traceId);
+      if (decided == null) {
+        TraceBuffer trace = stripe.traces.computeIfAbsent(traceId, id -> new TraceBuffer());
+        trace.add(data);
+        if (localRoot) {
+          stripe.traces.remove(traceId);
+          keepCompleted = decide(stripe, traceId, trace);
+          completed = trace;
+        }
+      }
+    }
+    if (decided != null) {
+      // the trace is already decided, the span follows
+      if (decided) {
+        lateKeptSpans.increment();
+        enqueue(data);
+      } else {
+        lateDroppedSpans.increment();
+      }
+      return;
+    }
+    bufferedSpans.incrementAndGet();
+    if (completed != null) {
+      release(completed, keepCompleted);
+    }
+    evictIfFull();
+  }
+
+  @Override
+  public boolean isEndRequired() {
+    return true;
+  }
+
+  /** Decide the oldest buffered traces of all the stripes while the buffer is above its cap. */
+  private void evictIfFull() {
+    while (bufferedSpans.get() > maxBufferedSpans) {
+      Stripe oldestStripe = null;
+      long oldestNanos = 0;
+      for (Stripe stripe : stripes) {
+        synchronized (stripe) {
+          Iterator<TraceBuffer> iterator = stripe.traces.values().iterator();
+          if (iterator.hasNext()) {
+            long createdNanos = iterator.next().createdNanos;
+            if (oldestStripe == null || createdNanos - oldestNanos < 0) {
+              oldestStripe = stripe;
+              oldestNanos = createdNanos;
+            }
+          }
+        }
+      }
+      if (oldestStripe == null) {
+        return;
+      }
+      TraceBuffer evicted;
+      boolean keep;
+      synchronized (oldestStripe) {
+        Iterator<Map.Entry<String, TraceBuffer>> iterator =
+            oldestStripe.traces.entrySet().iterator();
+        if (!iterator.hasNext()) {
+          // decided meanwhile, look again
+          continue;
+        }
+        Map.Entry<String, TraceBuffer> oldest = iterator.next();
+        iterator.remove();
+        evicted = oldest.getValue();
+        keep = decide(oldestStripe, oldest.getKey(), evicted);
+      }
+      evictedTraces.increment();
+      release(evicted, keep);
+    }
+  }
+
+  private void decideTimedOutTraces() {
+    long now = System.nanoTime();
+    for (Stripe stripe : stripes) {
+      List<TraceBuffer> kept = new ArrayList<>();
+      List<TraceBuffer> dropped = new ArrayList<>();
+      synchronized (stripe) {
+        // traces are in insertion order, the oldest first
+        Iterator<Map.Entry<String, TraceBuffer>> iterator = stripe.traces.entrySet().iterator();
+        while (iterator.hasNext()) {
+          Map.Entry<String, TraceBuffer> entry = iterator.next();
+          if (now - entry.getValue().createdNanos < decisionWaitNanos) {
+            break;
+          }
+          iterator.remove();
+          TraceBuffer trace = entry.getValue();
+          (decide(stripe, entry.getKey(), trace) ? kept : dropped).add(trace);
+        }
+      }
+      kept.forEach(trace -> release(trace, true));
+      dropped.forEach(trace -> release(trace, false));
+    }
+  }
+
+  /**
+   * Decide a trace removed from the buffer of its stripe, under the lock of the stripe, and keep
+   * the decision for the spans ending later.
+   */
+  private boolean decide(Stripe stripe, String traceId, TraceBuffer trace) {
+    boolean keep = shouldKeep(traceId, trace);
+    stripe.decisions.put(traceId, keep);
+    return keep;
+  }
+
+  /** Release the spans of a decided trace from the buffer, to the export queue if kept. */
+  private void release(TraceBuffer trace, boolean keep) {
+    bufferedSpans.addAndGet(-trace.spans.size());
+    if (!keep) {
+      droppedTraces.increment();
+      return;
+    }
+    keptTraces.increment();
+    trace.spans.forEach(this::enqueue);
+  }
+
+  private void enqueue(SpanData span) {
+    if (!exportQueue.offer(span)) {
+      exportDroppedSpans.increment();
+    }
+  }
+
+  private boolean shouldKeep(String traceId, TraceBuffer trace) {
+    if (trace.error || trace.maxLatencyNanos >= latencyThresholdNanos) {
+      return true;
+    }
+    for (SpanKind kind : trace.kinds) {
+      if (keptKinds.contains(kind)) {
+        return true;
+      }
+    }
+    // same computation as the trace id ratio based sampler, on the last 8 bytes of the trace id
+    long randomPart = Long.parseUnsignedLong(traceId.substring(16), 16);
+    return Math.abs(randomPart) < ratioUpperBound;
+  }
+
+  private void exportKeptSpans() {
+    List<SpanData> batch = new ArrayList<>(maxExportBatchSize);
+    while (exportQueue.drainTo(batch, maxExportBatchSize) > 0) {
+      CompletableResultCode result = exporter.export(batch).join(10, TimeUnit.SECONDS);
+      if (!result.isSuccess()) {
+        logger.log(Level.FINE, "Failed to export {0} tail sampled spans", batch.size());
+      }
+      batch = new ArrayList<>(maxExportBatchSize);
+    }
+  }
+
+  private void registerMetrics(Meter meter) {
+    meter
+        .counterBuilder("jug.tail_sampling.traces")
+        .setDescription("Number of traces decided by the tail sampling")
+        .buildWithCallback(
+            measurement -> {
+              measurement.record(keptTraces.sum(), KEPT);
+              measurement.record(droppedTraces.sum(), DROPPED);
+            });
+    meter
+        .counterBuilder("jug.tail_sampling.evicted.traces")
+        .setDescription("Number of traces decided early because the buffer was full")
+        .buildWithCallback(measurement -> measurement.record(evictedTraces.sum()));
+    meter
+        .counterBuilder("jug.tail_sampling.export.dropped.spans")
+        .setDescription("Number of kept spans dropped because the export queue was full")
+        .buildWithCallback(measurement -> measurement.record(exportDroppedSpans.sum()));
+    meter
+        .counterBuilder("jug.tail_sampling.late.spans")
+        .setDescription("Number of spans ended after the decision on their trace, and following it")
+        .buildWithCallback(
+            measurement -> {
+              measurement.record(lateKeptSpans.sum(), KEPT);
+              measurement.record(lateDroppedSpans.sum(), DROPPED);
+            });
+    meter
+        .gaugeBuilder("jug.tail_sampling.buffered.spans")
+        .setDescription("Number of spans waiting for the decision on their trace")
+        .ofLongs()
+        .buildWithCallback(measurement -> measurement.record(bufferedSpans.get()));
+  }
+
+  @Override
+  public CompletableResultCode forceFlush() {
+    return scheduleExport();
+  }
+
+  @Override
+  public CompletableResultCode shutdown() {
+    CompletableResultCode result = new CompletableResultCode();
+    scheduler.execute(
+        () -> {
+          for (Stripe stripe : stripes) {
+            List<TraceBuffer> kept = new ArrayList<>();
+            List<TraceBuffer> dropped = new ArrayList<>();
+            synchronized (stripe) {
+              for (Map.Entry<String, TraceBuffer> entry : stripe.traces.entrySet()) {
+                (decide(stripe, entry.getKey(), entry.getValue()) ? kept : dropped)
+                    .add(entry.getValue());
+              }
+              stripe.traces.clear();
+            }
+            kept.forEach(trace -> release(trace, true));
+            dropped.forEach(trace -> release(trace, false));
+          }
+          exportKeptSpans();
+          exporter.shutdown().whenComplete(result::succeed);
+        });
+    scheduler.shutdown();
+    return result;
+  }
+
+  private CompletableResultCode scheduleExport() {
+    CompletableResultCode result = new CompletableResultCode();
+    scheduler.execute(
+        () -> {
+          exportKeptSpans();
+          result.succeed();
+        });
+    return result;
+  }
+
+  private static final class Stripe {
+    // insertion order: the first entries are the oldest traces
+    private final Map<String, TraceBuffer> traces = new LinkedHashMap<>();
+    // decision by trace id, the oldest are forgotten
+    private final Map<String, Boolean> decisions;
+
+    Stripe(int maxDecisions) {
+      this.decisions =
+          new LinkedHashMap<String, Boolean>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+              return size() > maxDecisions;
+            }
+          };
+    }
+  }
+
+  private static final class TraceBuffer {
+    private final long createdNanos = System.nanoTime();
+    private final List<SpanData> spans = new ArrayList<>();
+    private final Set<SpanKind> kinds = EnumSet.noneOf(SpanKind.class);
+    private boolean error;
+    private long maxLatencyNanos;
+
+    void add(SpanData span) {
+      spans.add(span);
+      kinds.add(span.getKind());
+      error |= span.getStatus().getStatusCode() == StatusCode.ERROR;
+      maxLatencyNanos = Math.max(maxLatencyNanos, span.getEndEpochNanos() - span.getStartEpochNanos());
+    }
+  }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright The OpenTelemetry Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.example.javaagent;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class SegmentedLogTest {
+
+  // two records of 16 bytes of payload by segment, two segments at most
+  private static final int SEGMENT_BYTES = 2 * (SegmentedLog.HEADER_BYTES + 16);
+  private static final long MAX_BYTES = 2L * SEGMENT_BYTES;
+
+  @TempDir Path directory;
+
+  @Test
+  void readsTheRecordsInOrder() throws IOException {
+    SegmentedLog log = new SegmentedLog(directory, MAX_BYTES, SEGMENT_BYTES);
+    assertNull(log.peek());
+    assertEquals(-1, log.oldestAppendMillis());
+
+    append(log, "record-0");
+    append(log, "record-1");
+    append(log, "record-2");
+    assertEquals(3 * (SegmentedLog.HEADER_BYTES + 16), log.backlogBytes());
+    assertTrue(log.oldestAppendMillis() > 0);
+
+    for (int i = 0; i < 3; i++) {
+      SegmentedLog.Record record = log.peek();
+      assertEquals("record-" + i, text(record));
+      // not read until committed
+      assertEquals("record-" + i, text(log.peek()));
+      log.commit(record);
+    }
+    assertNull(log.peek());
+    assertEquals(0, log.backlogBytes());
+  }
+
+  @Test
+  void deletesTheSegmentsOnceRead() throws IOException {
+    SegmentedLog log = new SegmentedLog(directory, MAX_BYTES, SEGMENT_BYTES);
+    append(log, "record-0");
+    append(log, "record-1");
+    append(log, "record-2");
+    assertEquals(2, segmentFiles());
+
+    log.commit(log.peek());
+    log.commit(log.peek());
+    log.peek();
+    assertEquals(1, segmentFiles());
+  }
+
+  @Test
+  void resumesFromTheCursorAfterReopen() throws IOException {
+    SegmentedLog log = new SegmentedLog(directory, MAX_BYTES, SEGMENT_BYTES);
+    append(log, "record-0");
+    append(log, "record-1");
+    append(log, "record-2");
+    log.commit(log.peek());
+    log.force();
+
+    SegmentedLog reopened = new SegmentedLog(directory, MAX_BYTES, SEGMENT_BYTES);
+    assertEquals(2 * (SegmentedLog.HEADER_BYTES + 16), reopened.backlogBytes());
+    assertEquals("record-1", text(reopened.peek()));
+    reopened.commit(reopened.peek());
+    // appended after the records of the previous run
+    append(reopened, "record-3");
+    assertEquals("record-2", text(reopened.peek()));
+    reopened.commit(reopened.peek());
+    assertEquals("record-3", text(reopened.peek()));
+  }
+
+  @Test
+  void evictsTheOldestSegmentAtTheCap() throws IOException {
+    SegmentedLog log = new SegmentedLog(directory, MAX_BYTES, SEGMENT_BYTES);
+    for (int i = 0; i < 6; i++) {
+      append(log, "record-" + i);
+    }
+
+    assertEquals(2, log.evictedRecords());
+    assertEquals(2, segmentFiles());
+    assertEquals(4 * (SegmentedLog.HEADER_BYTES + 16), log.backlogBytes());
+    assertEquals("record-2", text(log.peek()));
+  }
+
+  @Test
+  void ignoresTheCommitOfAnEvictedRecord() throws IOException {
+    SegmentedLog log = new SegmentedLog(directory, MAX_BYTES, SEGMENT_BYTES);
+    append(log, "record-0");
+    SegmentedLog.Record evicted = log.peek();
+    for (int i = 1; i < 6; i++) {
+      append(log, "record-" + i);
+    }
+
+    log.commit(evicted);
+    // the oldest record left is not skipped
+    assertEquals("record-2", text(log.peek()));
+  }
+
+  @Test
+  void rejectsARecordLargerThanASegment() throws IOException {
+    SegmentedLog log = new SegmentedLog(directory, MAX_BYTES, SEGMENT_BYTES);
+    byte[] payload = new byte[SEGMENT_BYTES];
+    assertFalse(log.append(payload.length, output -> output.write(payload)));
+    assertEquals(0, log.backlogBytes());
+  }
+
+  @Test
+  void stopsAtATornRecord() throws IOException {
+    SegmentedLog log = new SegmentedLog(directory, MAX_BYTES, SEGMENT_BYTES);
+    append(log, "record-0");
+    append(log, "record-1");
+    log.force();
+    // the payload of the second record is not completely written: its CRC does not match
+    try (FileChannel channel =
+        FileChannel.open(directory.resolve(segmentFile(0)), StandardOpenOption.WRITE)) {
+      channel.write(ByteBuffer.wrap(new byte[] {0}), 2L * SegmentedLog.HEADER_BYTES + 16);
+    }
+
+    SegmentedLog reopened = new SegmentedLog(directory, MAX_BYTES, SEGMENT_BYTES);
+    assertEquals(SegmentedLog.HEADER_BYTES + 16, reopened.backlogBytes());
+    assertEquals("record-0", text(reopened.peek()));
+    reopened.commit(reopened.peek());
+    assertNull(reopened.peek());
+    // the torn record is overwritten by the next one
+    append(reopened, "record-2");
+    assertEquals("record-2", text(reopened.peek()));
+  }
+
+  // a payload of 16 bytes, the text padded with spaces
+  private static void append(SegmentedLog log, String text) throws IOException {
+    byte[] payload = String.format("%-16s", text).getBytes(StandardCharsets.US_ASCII);
+    assertTrue(log.append(payload.length, output -> output.write(payload)));
+  }
+
+  private static String text(SegmentedLog.Record record) {
+    return new String(record.payload, StandardCharsets.US_ASCII).trim();
+  }
+
+  private static String segmentFile(long sequence) {
+    return String.format("%020d.seg", sequence);
+  }
+
+  private long segmentFiles() throws IOException {
+    try (Stream<Path> files = Files.list(directory)) {
+      return files.filter(file -> file.toString().endsWith(".seg")).count();
+    }
+  }
+}